@@ -0,0 +1,313 @@
+package MiniGit;
+
+import java.io.File;
+import java.util.*;
+
+/**
+ * The AncestryIndex answers questions about how Commits are related using integer positions rather than Commits.
+ * Commits in the CommitGraphFile written by the last gc are looked up there without being read. Commits made since
+ * are read once, and numbered after those in the file, so every Commit has a position, its parents' positions,
+ * a generation and a time.
+ *
+ * Sets of Commits are held as BitSets, see ReachabilityBitmap. Commits in the file use the bit the file gives them,
+ * Commits made since use their position, which is past every bit the file gives out.
+ * */
+public class AncestryIndex {
+
+    static final int NO_PARENT = CommitGraphFile.NO_PARENT;
+
+    private final File commitsDir;
+    private final CommitGraphFile graph;
+    private final int graphSize;
+
+    /* Commits not in the graph file, numbered from graphSize */
+    private final Map<String, Integer> extraPositions = new HashMap<>();
+    private final List<String> extraIds = new ArrayList<>();
+    private final List<int[]> extraData = new ArrayList<>(); // first parent, second parent, generation
+    private final List<Long> extraTimes = new ArrayList<>();
+    /* bit -> position, for Commits in the graph file, built when first needed */
+    private int[] positionsByBit;
+
+    AncestryIndex(File commitsDir, File graphFile) {
+        this.commitsDir = commitsDir;
+        this.graph = CommitGraphFile.open(graphFile);
+        this.graphSize = graph == null ? 0 : graph.size();
+    }
+
+    /**
+     * Returns the position of the Commit with the given Sha1, or -1 if there is no such Commit.
+     * */
+    int positionOf(String commitID) {
+        int known = knownPosition(commitID);
+        if (known >= 0 || commitID == null) {
+            return known;
+        }
+
+        // Number the Commit only once its parents have been numbered, without recursion as histories may be long.
+        Map<String, Commit> read = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        stack.push(commitID);
+        while (!stack.isEmpty()) {
+            String id = stack.peek();
+            if (knownPosition(id) >= 0) {
+                stack.pop();
+                continue;
+            }
+            Commit c = read.computeIfAbsent(id, k -> CommitGraph.getCommit(commitsDir, k));
+            if (c == null) {
+                return -1;
+            }
+            boolean parentsKnown = true;
+            for (String parent : new String[]{c.getFirstParentSha1(), c.getSecondParentSha1()}) {
+                if (parent != null && knownPosition(parent) < 0) {
+                    stack.push(parent);
+                    parentsKnown = false;
+                }
+            }
+            if (parentsKnown) {
+                int first = knownPosition(c.getFirstParentSha1());
+                int second = knownPosition(c.getSecondParentSha1());
+                int generation = 1 + Math.max(first < 0 ? 0 : getGeneration(first), second < 0 ? 0 : getGeneration(second));
+                extraPositions.put(id, graphSize + extraIds.size());
+                extraIds.add(id);
+                extraData.add(new int[]{first, second, generation});
+                extraTimes.add(c.getTimeMillis());
+                read.remove(id);
+                stack.pop();
+            }
+        }
+        return knownPosition(commitID);
+    }
+
+    private int knownPosition(String commitID) {
+        if (commitID == null) {
+            return NO_PARENT;
+        }
+        Integer extra = extraPositions.get(commitID);
+        if (extra != null) {
+            return extra;
+        }
+        return graph == null ? -1 : graph.find(commitID);
+    }
+
+    /**
+     * Returns the Sha1 of the Commit at the given position.
+     * */
+    String getId(int position) {
+        return position < graphSize ? graph.getId(position) : extraIds.get(position - graphSize);
+    }
+
+    int getFirstParent(int position) {
+        return position < graphSize ? graph.getFirstParent(position) : extraData.get(position - graphSize)[0];
+    }
+
+    int getSecondParent(int position) {
+        return position < graphSize ? graph.getSecondParent(position) : extraData.get(position - graphSize)[1];
+    }
+
+    int getGeneration(int position) {
+        return position < graphSize ? graph.getGeneration(position) : extraData.get(position - graphSize)[2];
+    }
+
+    long getTimeMillis(int position) {
+        return position < graphSize ? graph.getTimeMillis(position) : extraTimes.get(position - graphSize);
+    }
+
+    /**
+     * Returns the bit standing for the Commit at the given position in a reachability bitmap.
+     * */
+    int getBit(int position) {
+        return position < graphSize ? graph.getBit(position) : position;
+    }
+
+    /**
+     * Returns the position of the Commit the given bit stands for.
+     * */
+    int positionOfBit(int bit) {
+        if (bit >= graphSize) {
+            return bit;
+        }
+        if (positionsByBit == null) {
+            positionsByBit = new int[graphSize];
+            for (int position = 0; position < graphSize; position++) {
+                positionsByBit[graph.getBit(position)] = position;
+            }
+        }
+        return positionsByBit[bit];
+    }
+
+    /**
+     * Returns the bits of every Commit reachable from the given Commit, including itself, following both parents.
+     * The walk stops at any Commit with a bitmap saved in the graph file and takes its bitmap instead.
+     * */
+    BitSet reachableFrom(String commitID) {
+        BitSet reachable = new BitSet();
+        int start = positionOf(commitID);
+        if (start < 0) {
+            return reachable;
+        }
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(start);
+        while (!stack.isEmpty()) {
+            int position = stack.pop();
+            if (reachable.get(getBit(position))) {
+                continue;
+            }
+            BitSet saved = position < graphSize ? graph.getBitmap(position) : null;
+            if (saved != null) {
+                reachable.or(saved);
+                continue;
+            }
+            reachable.set(getBit(position));
+            for (int parent : new int[]{getFirstParent(position), getSecondParent(position)}) {
+                if (parent != NO_PARENT) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return reachable;
+    }
+
+    /**
+     * Returns the IDs of the Commits reachable from the given Commit but from none of the excluded Commits,
+     * newest first.
+     * */
+    List<String> reachableOnlyFrom(String commitID, Collection<String> excludedIDs) {
+        BitSet only = reachableFrom(commitID);
+        for (String excluded : excludedIDs) {
+            only.andNot(reachableFrom(excluded));
+        }
+        List<Integer> positions = new ArrayList<>();
+        only.stream().forEach(bit -> positions.add(positionOfBit(bit)));
+        positions.sort(Comparator.comparingInt((Integer p) -> getGeneration(p)).thenComparingLong(this::getTimeMillis).reversed());
+        List<String> ids = new ArrayList<>(positions.size());
+        for (int position : positions) {
+            ids.add(getId(position));
+        }
+        return ids;
+    }
+
+    /*
+     * Paint flags used by mergeBases().
+     * */
+    private static final byte FROM_FIRST = 1;
+    private static final byte FROM_SECOND = 2;
+    private static final byte STALE = 4;
+    private static final byte RESULT = 8;
+
+    /**
+     * Returns the best common ancestors of the two given Commits, following both parents of every merge.
+     * A common ancestor is only returned if it is not an ancestor of another common ancestor,
+     * so criss-cross histories can have more than one. Bases are ordered newest first.
+     *
+     * Commits are visited highest generation first, each painted with the side(s) it is reachable from.
+     * A Commit reachable from both sides is a merge base, and everything below it is painted stale, the walk ends
+     * once only stale Commits remain to visit.
+     * */
+    List<String> mergeBases(String firstID, String secondID) {
+        int first = positionOf(firstID);
+        int second = positionOf(secondID);
+        List<String> bases = new ArrayList<>();
+        if (first < 0 || second < 0) {
+            return bases;
+        }
+        if (first == second) {
+            bases.add(firstID);
+            return bases;
+        }
+
+        byte[] flags = new byte[graphSize + extraIds.size()];
+        int[] queued = new int[flags.length];
+        int[] nonStale = {0};
+        PriorityQueue<Integer> queue = new PriorityQueue<>(
+                Comparator.comparingInt((Integer p) -> getGeneration(p)).thenComparingLong(this::getTimeMillis).reversed());
+        List<Integer> results = new ArrayList<>();
+
+        flags[first] |= FROM_FIRST;
+        flags[second] |= FROM_SECOND;
+        enqueue(queue, queued, nonStale, flags, first);
+        enqueue(queue, queued, nonStale, flags, second);
+
+        while (nonStale[0] > 0) {
+            int position = queue.poll();
+            queued[position]--;
+            if ((flags[position] & STALE) == 0) {
+                nonStale[0]--;
+            }
+            int paint = flags[position] & (FROM_FIRST | FROM_SECOND | STALE);
+            if (paint == (FROM_FIRST | FROM_SECOND)) {
+                if ((flags[position] & RESULT) == 0) {
+                    flags[position] |= RESULT;
+                    results.add(position);
+                }
+                paint |= STALE;
+            }
+            for (int parent : new int[]{getFirstParent(position), getSecondParent(position)}) {
+                if (parent == NO_PARENT || (flags[parent] & paint) == paint) {
+                    continue;
+                }
+                if ((paint & STALE) != 0 && (flags[parent] & STALE) == 0) {
+                    nonStale[0] -= queued[parent]; // copies already queued are now stale
+                }
+                flags[parent] |= paint;
+                enqueue(queue, queued, nonStale, flags, parent);
+            }
+        }
+
+        // Drop any base that is itself an ancestor of another base.
+        for (int candidate : results) {
+            boolean redundant = false;
+            for (int other : results) {
+                if (other != candidate && isAncestor(getId(candidate), getId(other))) {
+                    redundant = true;
+                    break;
+                }
+            }
+            if (!redundant) {
+                bases.add(getId(candidate));
+            }
+        }
+        return bases;
+    }
+
+    private static void enqueue(PriorityQueue<Integer> queue, int[] queued, int[] nonStale, byte[] flags, int position) {
+        queue.add(position);
+        queued[position]++;
+        if ((flags[position] & STALE) == 0) {
+            nonStale[0]++;
+        }
+    }
+
+    /**
+     * Returns true if the first Commit is the second Commit or one of its ancestors.
+     * Only Commits with a higher generation than the possible ancestor are walked,
+     * as no other Commit can lead to it.
+     * */
+    boolean isAncestor(String ancestorID, String descendantID) {
+        int ancestor = positionOf(ancestorID);
+        int descendant = positionOf(descendantID);
+        if (ancestor < 0 || descendant < 0) {
+            return false;
+        }
+        int ancestorGeneration = getGeneration(ancestor);
+        BitSet visited = new BitSet();
+        Deque<Integer> stack = new ArrayDeque<>();
+        stack.push(descendant);
+        while (!stack.isEmpty()) {
+            int position = stack.pop();
+            if (position == ancestor) {
+                return true;
+            }
+            if (visited.get(position) || getGeneration(position) <= ancestorGeneration) {
+                continue;
+            }
+            visited.set(position);
+            for (int parent : new int[]{getFirstParent(position), getSecondParent(position)}) {
+                if (parent != NO_PARENT && !visited.get(parent)) {
+                    stack.push(parent);
+                }
+            }
+        }
+        return false;
+    }
+}
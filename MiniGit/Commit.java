@@ -1,22 +1,28 @@
 package MiniGit;
 
-import java.io.Serializable;
 import java.util.*;
 
-public class Commit implements Serializable {
+/**
+ * A Commit records a snapshot of the tracked files, saved in the format described by CommitCodec.
+ * The tracked files are held in a Tree referenced by its ID, and are only read from the Tree when first asked for,
+ * so commits read for their metadata alone never load their file list.
+ * */
+public class Commit {
 
     private final String firstParentSha1;
     private String secondParentSha1 = null;
     String branch;
-    private final String timestamp;
-    private final Map<String, String> trackedFiles;
+    private final long timestamp;
+    private String treeId;
+    private Map<String, String> trackedFiles;
+    private boolean savedWithoutTree = false;
     private final String message;
 
     Commit(String branch){
         message = "initial commit";
-        timestamp = new Date(0).toString(); // 0 Milliseconds since epoch
+        timestamp = 0; // 0 Milliseconds since epoch
         firstParentSha1 = null;
-        trackedFiles = new HashMap<>();
+        treeId = Tree.EMPTY_TREE_ID;
         this.branch = branch;
         /*
         Makes the initial commit
@@ -25,35 +31,76 @@ public class Commit implements Serializable {
          */
     }
 
-    Commit(String parentSha1, String branch, String message, Map<String,String> blobs){
-        this.message = message;
-        this.timestamp = new Date().toString();
-        this.firstParentSha1 = parentSha1;
-        this.trackedFiles = Objects.requireNonNullElseGet(blobs, HashMap::new);
-        this.branch = branch;
-        }
+    Commit(String parentSha1, String branch, String message, String treeId){
+        this(parentSha1, null, branch, message, System.currentTimeMillis(), treeId);
+    }
 
-    Commit(String firstParentSha1, String secondParentSha1, String branch, String message, Map<String,String> blobs){
+    /**
+     * Recreates a Commit exactly as it was saved, see CommitCodec.
+     * */
+    Commit(String firstParentSha1, String secondParentSha1, String branch, String message, long timestamp, String treeId){
         this.message = message;
-        this.timestamp = new Date().toString();
+        this.timestamp = timestamp;
         this.firstParentSha1 = firstParentSha1;
         this.secondParentSha1 = secondParentSha1;
-        this.trackedFiles = Objects.requireNonNullElseGet(blobs, HashMap::new);
+        this.treeId = treeId;
         this.branch = branch;
     }
 
+    /**
+     * Recreates a Commit saved before Trees were introduced, which held its map<File name, Sha1Hash> directly.
+     * Files mapped to null are not tracked.
+     * */
+    Commit(String firstParentSha1, String secondParentSha1, String branch, String message, long timestamp, Map<String,String> blobs){
+        this(firstParentSha1, secondParentSha1, branch, message, timestamp, (String) null);
+        this.savedWithoutTree = true;
+        this.trackedFiles = new HashMap<>();
+        if (blobs != null) {
+            blobs.forEach((name, sha1) -> {
+                if (sha1 != null) {
+                    trackedFiles.put(name, sha1);
+                }
+            });
+        }
+    }
+
     /**
      * returns a map<File name, Sha1Hash> of trackedFiles in this commit,
      * if no files are tracked, returns an empty hashmap<>
      * */
     public Map<String, String> getTrackedFiles() {
+        if (trackedFiles == null) {
+            trackedFiles = Tree.readAll(Repository.OBJECTS_DIR, treeId);
+        }
         return trackedFiles;
     }
 
+    /**
+     * Returns the ID of the Tree holding this commits tracked files.
+     * A commit saved without a Tree has its Tree ID worked out from its files, without saving anything,
+     * as its Trees were saved by the upgrade to RepositoryFormat 10.
+     * */
+    public String getTreeId() {
+        if (treeId == null) {
+            treeId = Tree.id(trackedFiles);
+        }
+        return treeId;
+    }
+
+    /**
+     * Returns true if this commit was saved before Trees were introduced, and so holds its tracked files directly.
+     * */
+    boolean isSavedWithoutTree() {
+        return savedWithoutTree;
+    }
+
     /**Returns the corresponding Sha1 String value from the map of tracked files stored in the commit object.
      *  If no value exists, returns null */
     public String lookUpTrackedFile(String fileName){
-        return trackedFiles.get(fileName);
+        if (trackedFiles != null) {
+            return trackedFiles.get(fileName);
+        }
+        return Tree.lookUp(Repository.OBJECTS_DIR, treeId, fileName);
     }
 
     /**
@@ -83,6 +130,13 @@ public class Commit implements Serializable {
      * Returns the timestamp generated on this commits initialization.
      * */
     public String getTimestamp() {
+        return new Date(this.timestamp).toString();
+    }
+
+    /**
+     * Returns the timestamp generated on this commits initialization, in milliseconds since epoch.
+     * */
+    public long getTimeMillis() {
         return this.timestamp;
     }
 
@@ -90,7 +144,7 @@ public class Commit implements Serializable {
      * checks for equality between this commit and some other commit.
      * */
     public Boolean equals(Commit other) {
-        return FileUtilities.getSha1Hash(this).equals(FileUtilities.getSha1Hash(other));
+        return FileUtilities.getSha1Hash(CommitCodec.encode(this)).equals(FileUtilities.getSha1Hash(CommitCodec.encode(other)));
     }
 
     /**
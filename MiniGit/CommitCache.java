@@ -0,0 +1,105 @@
+package MiniGit;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * The CommitCache keeps the bytes of recently read Commits in memory, so walking the commit graph repeatedly,
+ * as log and merge do, reads each Commit from disk (and inflates it) only once.
+ *
+ * The cache holds at most MAX_BYTES of Commit data, the least recently used Commits are dropped first.
+ * A Commit's ID is the Sha1 of its bytes, so a cached Commit can never be out of date.
+ * The bytes are cached rather than the Commit, every caller is given its own Commit decoded from them.
+ * Commits are read outside the cache's lock, so several threads can read Commits at once.
+ * */
+public class CommitCache {
+
+    static final long MAX_BYTES = 16 * 1024 * 1024;
+    /* Estimated memory used by a cache entry beyond the Commit bytes themselves */
+    private static final int ENTRY_OVERHEAD = 128;
+
+    private static final LinkedHashMap<String, byte[]> commits = new LinkedHashMap<>(16, 0.75f, true);
+    private static long size = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+
+    /**
+     * Returns the bytes of the Commit with the given ID, calling the loader to read them if they are not cached.
+     * Returns null, and caches nothing, if the loader returns null.
+     * */
+    static byte[] get(String commitID, Function<String, byte[]> loader) {
+        byte[] cached = lookUp(commitID);
+        if (cached != null) {
+            return cached;
+        }
+        byte[] loaded = loader.apply(commitID);
+        if (loaded != null && commitID != null) {
+            store(commitID, loaded);
+        }
+        return loaded;
+    }
+
+    private static synchronized byte[] lookUp(String commitID) {
+        byte[] cached = commitID == null ? null : commits.get(commitID);
+        if (cached != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return cached;
+    }
+
+    private static synchronized void store(String commitID, byte[] commit) {
+        byte[] previous = commits.put(commitID, commit);
+        if (previous != null) {
+            size -= weight(previous);
+        }
+        size += weight(commit);
+        evict();
+    }
+
+    /**
+     * Returns the number of Commits found in the cache.
+     * */
+    static synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of Commits that had to be read because they were not cached.
+     * */
+    static synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Returns the estimated memory, in bytes, used by the cached Commits.
+     * */
+    static synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Empties the cache and resets its counters.
+     * */
+    static synchronized void clear() {
+        commits.clear();
+        size = 0;
+        hits = 0;
+        misses = 0;
+    }
+
+    private static void evict() {
+        Iterator<Map.Entry<String, byte[]>> eldest = commits.entrySet().iterator();
+        while (size > MAX_BYTES && eldest.hasNext()) {
+            size -= weight(eldest.next().getValue());
+            eldest.remove();
+        }
+    }
+
+    private static long weight(byte[] commit) {
+        return commit.length + ENTRY_OVERHEAD;
+    }
+}
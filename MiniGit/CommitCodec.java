@@ -0,0 +1,197 @@
+package MiniGit;
+
+import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The CommitCodec class converts Commits to and from the bytes they are saved as.
+ * A Commit's ID is the Sha1 of these bytes, so the format is fixed and written field by field:
+ *
+ * Signature "MGC", Version,
+ * Parent Count, then each parent as a 20 byte Sha1,
+ * Timestamp as milliseconds since epoch,
+ * Branch, Message,
+ * Tree, the 20 byte Sha1 of the Tree holding the tracked files.
+ *
+ * Strings are written as an int length followed by their UTF-8 bytes.
+ * Commits written by older versions, with Java serialization or with their tracked files listed in place of a Tree
+ * (version 1: Tracked File Count, then each tracked file as Name, 20 byte Sha1), are still decoded.
+ * Their IDs are unchanged as the bytes they are saved as are never rewritten.
+ * */
+public class CommitCodec {
+
+    static final String SIGNATURE = "MGC";
+    static final byte VERSION = 2;
+    private static final byte TRACKED_FILES_VERSION = 1;
+    private static final int SHA1_BYTES = 20;
+    private static final byte[] JAVA_SERIALIZATION_MAGIC = {(byte) 0xac, (byte) 0xed};
+    /* Legacy Commits held their timestamp as the String given by Date.toString() */
+    private static final DateTimeFormatter LEGACY_TIMESTAMP_FORMAT =
+            DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy", Locale.ENGLISH);
+
+    /**
+     * Returns the bytes the given Commit is saved as.
+     * */
+    static byte[] encode(Commit commit) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeBytes(SIGNATURE);
+            out.writeByte(VERSION);
+
+            String first = commit.getFirstParentSha1();
+            String second = commit.getSecondParentSha1();
+            out.writeByte(first == null ? 0 : second == null ? 1 : 2);
+            if (first != null) {
+                PackFile.writeSha1(out, first);
+            }
+            if (first != null && second != null) {
+                PackFile.writeSha1(out, second);
+            }
+
+            out.writeLong(commit.getTimeMillis());
+            writeString(out, commit.getBranch());
+            writeString(out, commit.getMessage());
+
+            PackFile.writeSha1(out, commit.getTreeId());
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new Error("IO");
+        }
+    }
+
+    /**
+     * Returns the Commit the given bytes represent.
+     * Throws IllegalArgumentException if the bytes are not a Commit.
+     * */
+    static Commit decode(byte[] bytes) {
+        if (bytes.length >= 2 && bytes[0] == JAVA_SERIALIZATION_MAGIC[0] && bytes[1] == JAVA_SERIALIZATION_MAGIC[1]) {
+            return decodeLegacy(bytes);
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            for (int i = 0; i < SIGNATURE.length(); i++) {
+                if (in.get() != SIGNATURE.charAt(i)) {
+                    throw new IllegalArgumentException("Not a MiniGit Commit");
+                }
+            }
+            byte version = in.get();
+            if (version != VERSION && version != TRACKED_FILES_VERSION) {
+                throw new IllegalArgumentException("Commit was written by a newer version of MiniGit");
+            }
+
+            int parents = in.get();
+            String first = parents > 0 ? readSha1(in) : null;
+            String second = parents > 1 ? readSha1(in) : null;
+            long timestamp = in.getLong();
+            String branch = readString(in);
+            String message = readString(in);
+
+            if (version == VERSION) {
+                return new Commit(first, second, branch, message, timestamp, readSha1(in));
+            }
+            int fileCount = in.getInt();
+            Map<String, String> files = new HashMap<>(Math.max(16, fileCount * 4 / 3 + 1));
+            for (int i = 0; i < fileCount; i++) {
+                String name = readString(in);
+                files.put(name, readSha1(in));
+            }
+            return new Commit(first, second, branch, message, timestamp, files);
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Commit is truncated");
+        }
+    }
+
+    /**
+     * Writes a String as an int length followed by its UTF-8 bytes.
+     * */
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] b = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(b.length);
+        out.write(b);
+    }
+
+    /**
+     * Reads a String written by writeString().
+     * */
+    static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        String s = new String(in.array(), in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return s;
+    }
+
+    /**
+     * Reads a Sha1 stored as 20 raw bytes and returns it as a hex String.
+     * */
+    static String readSha1(ByteBuffer in) {
+        char[] hex = new char[SHA1_BYTES * 2];
+        for (int i = 0; i < SHA1_BYTES; i++) {
+            int b = in.get() & 0xff;
+            hex[2 * i] = Character.forDigit(b >>> 4, 16);
+            hex[2 * i + 1] = Character.forDigit(b & 0xf, 16);
+        }
+        return new String(hex);
+    }
+
+    /**
+     * Decodes a Commit written with Java serialization.
+     * */
+    private static Commit decodeLegacy(byte[] bytes) {
+        try (ObjectInputStream in = new LegacyCommitInputStream(new ByteArrayInputStream(bytes))) {
+            LegacyCommit legacy = (LegacyCommit) in.readObject();
+            long timestamp;
+            try {
+                timestamp = ZonedDateTime.parse(legacy.timestamp, LEGACY_TIMESTAMP_FORMAT).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                timestamp = 0;
+            }
+            return new Commit(legacy.firstParentSha1, legacy.secondParentSha1, legacy.branch, legacy.message,
+                    timestamp, legacy.trackedFiles == null ? new HashMap<>() : new HashMap<>(legacy.trackedFiles));
+        } catch (IOException | ClassCastException | ClassNotFoundException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * The fields of a Commit as it was written with Java serialization.
+     * */
+    private static class LegacyCommit implements Serializable {
+        private static final long serialVersionUID = 1999989891244516722L;
+
+        private String firstParentSha1;
+        private String secondParentSha1;
+        String branch;
+        private String timestamp;
+        private Map<String, String> trackedFiles;
+        private String message;
+    }
+
+    /**
+     * Reads the legacy Commit class as a LegacyCommit.
+     * */
+    private static class LegacyCommitInputStream extends ObjectInputStream {
+
+        LegacyCommitInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected ObjectStreamClass readClassDescriptor() throws IOException, ClassNotFoundException {
+            ObjectStreamClass descriptor = super.readClassDescriptor();
+            if (descriptor.getName().equals(Commit.class.getName())) {
+                return ObjectStreamClass.lookup(LegacyCommit.class);
+            }
+            return descriptor;
+        }
+    }
+}
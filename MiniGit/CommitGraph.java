@@ -3,8 +3,7 @@ package MiniGit;
 import java.io.File;
 import java.util.*;
 
-import static MiniGit.FileUtilities.getFile;
-import static MiniGit.FileUtilities.readFile;
+import static MiniGit.FileUtilities.*;
 
 public class CommitGraph {
 
@@ -20,131 +19,131 @@ public class CommitGraph {
      * examining the parents tracked files, the currently staged files, and the files staged for removal.
      * No duplicates are allowed, any file staged is added, any file staged for removal is removed,
      * and all other files tracked in the parent commit are added.
+     * The parents Tree is updated rather than copied, so only directories containing a change are rewritten.
      *
      * Returns a Commit Object.
      * */
-    public static Commit makeNewCommit(Commit parent, String parentSha1, String branch, String message, Map<String, String> stagedBlobs, Set<String> unstagedFiles) {
-        HashMap<String, String> parentBlobs = new HashMap<>();
-        if (parent != null) {
-            parentBlobs = (HashMap<String, String>) parent.getTrackedFiles();
-            parentBlobs.entrySet().removeIf(entry -> unstagedFiles.contains(entry.getKey()));
-
-            parentBlobs.putAll(stagedBlobs);
-        }
-        return new Commit(parentSha1, branch, message, parentBlobs);
+    public static Commit makeNewCommit(Commit parent, String parentSha1, String branch, String message, Map<String, String> stagedBlobs, Set<String> unstagedFiles, File objectsDir) {
+        String parentTree = parent == null ? null : parent.getTreeId();
+        String tree = Tree.update(objectsDir, parentTree, stagedBlobs, unstagedFiles);
+        return new Commit(parentSha1, branch, message, tree);
     }
 
 
     /**
-     * Returns a linkedHashMap of all files in a Commits history
+     * Returns an Iterator over the given Commit and its first parents, newest first, as CommitID -> Commit entries.
+     * Each Commit is only read when the Iterator reaches it, so stopping early never reads the rest of the history.
      * */
-    public static LinkedHashMap<String, Commit> getCommitHistory(String commitId, Commit commit, File commitsDir) {
-        LinkedHashMap<String, Commit> commitMap = new LinkedHashMap<>();
-        commitMap.put(commitId, commit);
-
-        String parentID = commit.getFirstParentSha1();
-        while (parentID != null) {
-            Commit c = FileUtilities.readFile(new File(commitsDir, parentID), Commit.class);
-            commitMap.put(parentID, c);
-            parentID = c.getFirstParentSha1();
-        }
-        return commitMap;
-    }
+    public static Iterator<Map.Entry<String, Commit>> getCommitHistory(String commitId, File commitsDir) {
+        return new Iterator<>() {
+            private String nextID = commitId;
 
-    /**
-     * Searches through all Commits for any Commits with the specified message and returns them as an ArrayList<String>
-     * */
-    public static ArrayList<String> searchByMessage(String message, File location) {
+            @Override
+            public boolean hasNext() {
+                return nextID != null;
+            }
 
-        ArrayList<String> idList = new ArrayList<>();
-        for (File commitFile : location.listFiles()) {
-            String thisMessage = FileUtilities.readFile(commitFile, Commit.class).getMessage();
-            if (thisMessage.equals(message)) {
-                idList.add(commitFile.getName());
+            @Override
+            public Map.Entry<String, Commit> next() {
+                if (nextID == null) {
+                    throw new NoSuchElementException();
+                }
+                Commit c = getCommit(commitsDir, nextID);
+                Map.Entry<String, Commit> entry = Map.entry(nextID, c);
+                nextID = c == null ? null : c.getFirstParentSha1();
+                return entry;
             }
-        }
-        return idList;
+        };
     }
 
-
     /**
-     * Determines the first common ancestor of the specified commits.
-     * Returns the Commit File of said ancestor.
+     * Returns the Commit to use as the split point when merging the two specified Commits, or null if they have
+     * no common ancestor. Both parents of every merge Commit are followed, see AncestryIndex.mergeBases().
+     * Where criss-cross merges leave several equally good merge bases, they are merged together into one
+     * virtual Commit, which is used as the split point but never saved.
      * */
-    static String findFirstSplitPoint(Commit currentCommit,
-                                             String currentID,
-                                             Commit otherBranchCommit,
-                                             String otherBranchID,
-                                             File location) {
-
-        if (currentID.equals(otherBranchID)) {
-            System.out.println("Branch is current, unable to merge.");
+    static Commit findSplitPoint(AncestryIndex ancestry,
+                                 String currentID,
+                                 String otherBranchID,
+                                 File location,
+                                 File storedFileLocation) {
+
+        List<String> bases = ancestry.mergeBases(currentID, otherBranchID);
+        if (bases.isEmpty()) {
+            System.out.println("No common ancestor found. Commit history is damaged or incomplete.");
             return null;
         }
 
-        Set<String> allCommitsSoFar = new HashSet<>();
-        allCommitsSoFar.add(currentID);
-        allCommitsSoFar.add(otherBranchID);
-
-        String split = null;
-
-        while (split == null) {
-            String currentBranch_NextNodeID = currentCommit.getFirstParentSha1();
-            String otherBranch_NextNodeID = otherBranchCommit.getFirstParentSha1();
-
-            if (currentBranch_NextNodeID != null) {
-                if (allCommitsSoFar.contains(currentBranch_NextNodeID)) {
-                    split = currentBranch_NextNodeID;
-                    break;
-                } else {
-                    allCommitsSoFar.add(currentBranch_NextNodeID);
-                    currentCommit = getCommit(location, currentBranch_NextNodeID);
-                }
-            }
-
-            /* Slightly more efficient implementation -> less readable.
-            if (currentBranch_NextNodeID != null){
-                if (allCommitsSoFar.add(currentBranch_NextNodeID)){
-                    currentCommit = getCommit(location, currentBranch_NextNodeID);
-                } else {
-                    split = currentBranch_NextNodeID;
-                    break;
-                }
-           } */
-
-            if (otherBranch_NextNodeID != null) {
-                if (allCommitsSoFar.contains(otherBranch_NextNodeID)) {
-                    split = otherBranch_NextNodeID;
-                    break;
-                } else {
-                    allCommitsSoFar.add(otherBranch_NextNodeID);
-                    otherBranchCommit = getCommit(location, otherBranch_NextNodeID);
-                }
-            }
-
-            // Escape Route if it all goes wrong.
-            if (currentBranch_NextNodeID == null && otherBranch_NextNodeID == null) {
-                System.out.println("No common ancestor found. Commit history is damaged or incomplete.");
+        Commit split = getCommit(location, bases.get(0));
+        for (String baseID : bases.subList(1, bases.size())) {
+            Commit base = getCommit(location, baseID);
+            Commit innerSplit = findSplitPoint(ancestry, bases.get(0), baseID, location, storedFileLocation);
+            if (innerSplit == null) {
                 return null;
             }
-
+            Merger m = new Merger(innerSplit, split, base, storedFileLocation, false);
+            split = new Commit(null, null, split.branch, m.getMessage(), split.getTimeMillis(), m.getMergedFiles());
         }
         return split;
     }
 
     /**
-     * Returns a Commit with the given commitId in the given parent Directory or null.
+     * Returns a Commit with the given commitId from a pack, or in the given parent Directory, or null.
+     * Recently read Commits are returned from the CommitCache.
      * */
     static Commit getCommit(File parentDirectory, String commitID) {
-        File f = getFile(parentDirectory, commitID);
-        if (f != null) {
-            Commit c = readFile(f, Commit.class);
-            return c;
+        byte[] bytes = CommitCache.get(commitID, id -> loadCommitBytes(parentDirectory, id));
+        if (bytes != null) {
+            return CommitCodec.decode(bytes);
         }
         System.out.println("No Such Commit ID");
         return null;
     }
 
+    /**
+     * Returns the serialized bytes of the Commit with the given commitId, packed or loose.
+     * */
+    static byte[] readCommitBytes(File parentDirectory, String commitID) {
+        byte[] bytes = CommitCache.get(commitID, id -> loadCommitBytes(parentDirectory, id));
+        if (bytes == null) {
+            throw new IllegalArgumentException("No Such Commit ID " + commitID);
+        }
+        return bytes;
+    }
+
+    /**
+     * Reads the serialized bytes of the Commit with the given commitId from a pack or the given directory, or null.
+     * */
+    private static byte[] loadCommitBytes(File parentDirectory, String commitID) {
+        byte[] packed = PackFile.read(Repository.PACKS_DIR, commitID);
+        if (packed != null) {
+            return packed;
+        }
+        if (commitID == null) {
+            return null;
+        }
+        File f = WriteBatch.resolve(new File(parentDirectory, commitID));
+        return f.isFile() ? readCompressed(f) : null;
+    }
+
+    /**
+     * Returns the IDs of every Commit saved as a file in the given directory,
+     * skipping the temporary files Commits are written to before being renamed into place.
+     * */
+    static List<String> getLooseCommitIds(File parentDirectory) {
+        String[] names = parentDirectory.list((dir, name) -> name.length() == ObjectStore.SHA1_LENGTH);
+        return names == null ? new ArrayList<>() : new ArrayList<>(List.of(names));
+    }
+
+    /**
+     * Returns the IDs of every Commit, whether saved as a file in the given directory or packed.
+     * */
+    static List<String> getAllCommitIds(File parentDirectory) {
+        Set<String> ids = new LinkedHashSet<>(getLooseCommitIds(parentDirectory));
+        ids.addAll(PackFile.getIds(Repository.PACKS_DIR, PackFile.TYPE_COMMIT));
+        return new ArrayList<>(ids);
+    }
+
     /**
      * Merges two files of different branches, handling any conflict that arises.
      * */
@@ -161,7 +160,8 @@ public class CommitGraph {
         Map<String, String> newCommitFiles = m.getMergedFiles();
         String message = m.getMessage();
 
-        return new Commit(currentID, otherBranchID, currentCommit.branch, message, newCommitFiles);
+        return new Commit(currentID, otherBranchID, currentCommit.branch, message, System.currentTimeMillis(),
+                Tree.write(Repository.OBJECTS_DIR, newCommitFiles));
     }
 
 }
@@ -0,0 +1,271 @@
+package MiniGit;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * The CommitGraphFile holds the shape of the commit graph as fixed width tables, so ancestry can be worked out
+ * without reading a single Commit. It is written by the gc command, and memory mapped when read:
+ *
+ * Signature "MGCG", Version, Commit Count,
+ * Fan Out and Sha1s: laid out as in a PackIndex, every Commit's 20 byte Sha1, sorted,
+ * Commit Data: per Commit, the positions of its first and second parent (-1 if none), its generation and its time,
+ * Bit Order: per Commit, the bit standing for it in a ReachabilityBitmap, Commits are numbered oldest first,
+ * Bitmaps: Bitmap Count, then per bitmap the position of its Commit and its encoded length, then the bitmaps.
+ *
+ * A Commit's position is its place in the Sha1 table. The generation of a Commit with no parents is 1, any other
+ * Commit's generation is one more than that of its highest parent, so a Commit can only be an ancestor of Commits
+ * with a higher generation.
+ *
+ * A ReachabilityBitmap of every Commit reachable from it is saved for each branch head, and for Commits every
+ * BITMAP_INTERVAL generations down their first parents, so a walk from a newer Commit soon reaches a saved bitmap.
+ * */
+public class CommitGraphFile {
+
+    static final String SIGNATURE = "MGCG";
+    static final int VERSION = 2;
+    static final int NO_PARENT = -1;
+    private static final int HEADER_LENGTH = SIGNATURE.length() + 8;
+    private static final int DATA_WIDTH = 20;
+    static final int BITMAP_INTERVAL = 256;
+
+    private final ByteBuffer graph;
+    private final int count;
+    private final int sha1Table;
+    private final int dataTable;
+    private final int bitTable;
+    /* position -> offset and length of its bitmap */
+    private final Map<Integer, int[]> bitmaps = new HashMap<>();
+
+    private CommitGraphFile(ByteBuffer graph) {
+        this.graph = graph;
+        count = graph.getInt(SIGNATURE.length() + 4);
+        sha1Table = HEADER_LENGTH + PackIndex.FAN_OUT_SIZE * 4;
+        dataTable = sha1Table + count * PackIndex.SHA1_BYTES;
+        bitTable = dataTable + count * DATA_WIDTH;
+
+        int bitmapTable = bitTable + count * 4;
+        int bitmapCount = graph.getInt(bitmapTable);
+        int offset = bitmapTable + 4 + bitmapCount * 8;
+        for (int i = 0; i < bitmapCount; i++) {
+            int length = graph.getInt(bitmapTable + 4 + i * 8 + 4);
+            bitmaps.put(graph.getInt(bitmapTable + 4 + i * 8), new int[]{offset, length});
+            offset += length;
+        }
+    }
+
+    /**
+     * Maps the given commit graph file into memory. Returns null if there is no such file.
+     * */
+    static CommitGraphFile open(File graphFile) {
+        if (!graphFile.isFile()) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(graphFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] signature = new byte[SIGNATURE.length()];
+            mapped.get(0, signature);
+            if (!SIGNATURE.equals(new String(signature)) || mapped.getInt(SIGNATURE.length()) != VERSION) {
+                return null;
+            }
+            return new CommitGraphFile(mapped);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of Commits in the graph.
+     * */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the position of the Commit with the given Sha1, or -1 if it is not in the graph.
+     * */
+    int find(String sha1) {
+        return PackIndex.find(graph, HEADER_LENGTH, sha1Table, sha1);
+    }
+
+    /**
+     * Returns the Sha1 of the Commit at the given position.
+     * */
+    String getId(int position) {
+        return PackIndex.getId(graph, sha1Table + position * PackIndex.SHA1_BYTES);
+    }
+
+    int getFirstParent(int position) {
+        return graph.getInt(dataTable + position * DATA_WIDTH);
+    }
+
+    int getSecondParent(int position) {
+        return graph.getInt(dataTable + position * DATA_WIDTH + 4);
+    }
+
+    int getGeneration(int position) {
+        return graph.getInt(dataTable + position * DATA_WIDTH + 8);
+    }
+
+    long getTimeMillis(int position) {
+        return graph.getLong(dataTable + position * DATA_WIDTH + 12);
+    }
+
+    /**
+     * Returns the bit standing for the Commit at the given position in a ReachabilityBitmap.
+     * */
+    int getBit(int position) {
+        return graph.getInt(bitTable + position * 4);
+    }
+
+    /**
+     * Returns the ReachabilityBitmap saved for the Commit at the given position, or null if none was saved.
+     * */
+    BitSet getBitmap(int position) {
+        int[] location = bitmaps.get(position);
+        return location == null ? null : ReachabilityBitmap.read(graph, location[0], location[1]);
+    }
+
+    /**
+     * Writes a commit graph file for the given map<Sha1, Commit>, which must include every parent of every Commit.
+     * Bitmaps are saved for the given branch heads, see above.
+     * The file is written to a temporary file then renamed.
+     * */
+    static void write(File graphFile, Map<String, Commit> commits, Collection<String> branchHeads) {
+        List<String> ids = new ArrayList<>(new TreeSet<>(commits.keySet()));
+        Map<String, Integer> positions = new HashMap<>();
+        for (int i = 0; i < ids.size(); i++) {
+            positions.put(ids.get(i), i);
+        }
+        Map<String, Integer> generations = generations(commits);
+
+        List<String> oldestFirst = new ArrayList<>(ids);
+        oldestFirst.sort(Comparator.comparing((String id) -> generations.get(id))
+                .thenComparing(id -> commits.get(id).getTimeMillis()));
+        Map<String, Integer> bits = new HashMap<>();
+        for (int i = 0; i < oldestFirst.size(); i++) {
+            bits.put(oldestFirst.get(i), i);
+        }
+        SortedMap<Integer, BitSet> bitmaps = new TreeMap<>();
+        reachabilityBitmaps(commits, generations, bits, branchHeads).forEach((id, bitmap) -> bitmaps.put(positions.get(id), bitmap));
+
+        File temporary = new File(graphFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary.toPath())))) {
+            out.writeBytes(SIGNATURE);
+            out.writeInt(VERSION);
+            out.writeInt(ids.size());
+            PackIndex.writeSha1Table(out, ids);
+            for (String id : ids) {
+                Commit c = commits.get(id);
+                out.writeInt(positions.getOrDefault(c.getFirstParentSha1(), NO_PARENT));
+                out.writeInt(positions.getOrDefault(c.getSecondParentSha1(), NO_PARENT));
+                out.writeInt(generations.get(id));
+                out.writeLong(c.getTimeMillis());
+            }
+            for (String id : ids) {
+                out.writeInt(bits.get(id));
+            }
+            out.writeInt(bitmaps.size());
+            for (Map.Entry<Integer, BitSet> bitmap : bitmaps.entrySet()) {
+                out.writeInt(bitmap.getKey());
+                out.writeInt(ReachabilityBitmap.encodedLength(bitmap.getValue()));
+            }
+            for (BitSet bitmap : bitmaps.values()) {
+                ReachabilityBitmap.write(out, bitmap);
+            }
+        } catch (IOException e) {
+            temporary.delete();
+            throw new IllegalArgumentException("Unable to write commit graph: " + e.getMessage());
+        }
+        WriteBatch.saveNow(temporary, graphFile);
+    }
+
+    /**
+     * Returns the ReachabilityBitmap of each branch head, and of the Commits every BITMAP_INTERVAL generations down
+     * their first parents. Bitmaps are built oldest first, so each walk stops at Commits with a bitmap already built.
+     * */
+    private static Map<String, BitSet> reachabilityBitmaps(Map<String, Commit> commits, Map<String, Integer> generations,
+                                                           Map<String, Integer> bits, Collection<String> branchHeads) {
+        Set<String> selected = new HashSet<>();
+        for (String head : branchHeads) {
+            for (String id = head; id != null && commits.containsKey(id) && (id.equals(head) || !selected.contains(id));
+                 id = commits.get(id).getFirstParentSha1()) {
+                if (id.equals(head) || generations.get(id) % BITMAP_INTERVAL == 0) {
+                    selected.add(id);
+                }
+            }
+        }
+        List<String> ordered = new ArrayList<>(selected);
+        ordered.sort(Comparator.comparing(generations::get));
+
+        Map<String, BitSet> bitmaps = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        for (String start : ordered) {
+            BitSet bitmap = new BitSet(commits.size());
+            stack.push(start);
+            while (!stack.isEmpty()) {
+                String id = stack.pop();
+                if (bitmap.get(bits.get(id))) {
+                    continue;
+                }
+                BitSet built = bitmaps.get(id);
+                if (built != null) {
+                    bitmap.or(built);
+                    continue;
+                }
+                bitmap.set(bits.get(id));
+                Commit c = commits.get(id);
+                for (String parent : new String[]{c.getFirstParentSha1(), c.getSecondParentSha1()}) {
+                    if (parent != null && commits.containsKey(parent)) {
+                        stack.push(parent);
+                    }
+                }
+            }
+            bitmaps.put(start, bitmap);
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Returns the generation of every Commit in the given map<Sha1, Commit>.
+     * Parents missing from the map are ignored. The graph is walked without recursion, so history depth is unlimited.
+     * */
+    static Map<String, Integer> generations(Map<String, Commit> commits) {
+        Map<String, Integer> generations = new HashMap<>();
+        Deque<String> stack = new ArrayDeque<>();
+        for (String id : commits.keySet()) {
+            stack.push(id);
+            while (!stack.isEmpty()) {
+                String current = stack.peek();
+                if (generations.containsKey(current)) {
+                    stack.pop();
+                    continue;
+                }
+                Commit c = commits.get(current);
+                int generation = 1;
+                boolean parentsKnown = true;
+                for (String parent : new String[]{c.getFirstParentSha1(), c.getSecondParentSha1()}) {
+                    if (parent == null || !commits.containsKey(parent)) {
+                        continue;
+                    }
+                    Integer parentGeneration = generations.get(parent);
+                    if (parentGeneration == null) {
+                        stack.push(parent);
+                        parentsKnown = false;
+                    } else {
+                        generation = Math.max(generation, parentGeneration + 1);
+                    }
+                }
+                if (parentsKnown) {
+                    generations.put(current, generation);
+                    stack.pop();
+                }
+            }
+        }
+        return generations;
+    }
+}
@@ -0,0 +1,177 @@
+package MiniGit;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The Delta class describes one version of some content as a set of instructions against another (base) version,
+ * in the style of rsync: the base is split into fixed size blocks indexed by a weak rolling checksum,
+ * the target is scanned one byte at a time for runs that can be copied from the base,
+ * anything else is inserted literally.
+ *
+ * A delta is laid out as: base length, target length, then a sequence of
+ * COPY(base offset, length) and INSERT(length, bytes) instructions. All numbers are written as varints.
+ * */
+public class Delta {
+
+    static final int BLOCK_SIZE = 16;
+    private static final int COPY = 0;
+    private static final int INSERT = 1;
+
+    /**
+     * Returns a delta that rebuilds target from base.
+     * */
+    static byte[] create(byte[] base, byte[] target) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVarint(out, base.length);
+        writeVarint(out, target.length);
+
+        Map<Integer, Integer> blocks = indexBlocks(base);
+        int literalStart = 0;
+        int position = 0;
+        int weak = target.length >= BLOCK_SIZE ? checksum(target, 0) : 0;
+
+        while (position + BLOCK_SIZE <= target.length) {
+            Integer baseOffset = blocks.get(weak);
+            int length = baseOffset == null ? 0 : matchLength(base, baseOffset, target, position);
+
+            if (length >= BLOCK_SIZE) {
+                // Extend the match backwards into bytes that would otherwise be inserted literally.
+                int back = 0;
+                while (back < position - literalStart && back < baseOffset
+                        && base[baseOffset - back - 1] == target[position - back - 1]) {
+                    back++;
+                }
+                writeInsert(out, target, literalStart, position - back);
+                writeCopy(out, baseOffset - back, length + back);
+                position += length;
+                literalStart = position;
+                if (position + BLOCK_SIZE <= target.length) {
+                    weak = checksum(target, position);
+                }
+            } else {
+                if (position + BLOCK_SIZE < target.length) {
+                    weak = roll(weak, target[position], target[position + BLOCK_SIZE]);
+                }
+                position++;
+            }
+        }
+        writeInsert(out, target, literalStart, target.length);
+        return out.toByteArray();
+    }
+
+    /**
+     * Rebuilds the target content described by the given delta from its base.
+     * Throws IllegalArgumentException if the delta was not made against this base.
+     * */
+    static byte[] apply(byte[] base, byte[] delta) {
+        int[] cursor = {0};
+        if (readVarint(delta, cursor) != base.length) {
+            throw new IllegalArgumentException("Delta does not apply to the given base");
+        }
+        byte[] target = new byte[readVarint(delta, cursor)];
+        int written = 0;
+
+        while (cursor[0] < delta.length) {
+            int instruction = delta[cursor[0]++];
+            if (instruction == COPY) {
+                int offset = readVarint(delta, cursor);
+                int length = readVarint(delta, cursor);
+                System.arraycopy(base, offset, target, written, length);
+                written += length;
+            } else {
+                int length = readVarint(delta, cursor);
+                System.arraycopy(delta, cursor[0], target, written, length);
+                cursor[0] += length;
+                written += length;
+            }
+        }
+        if (written != target.length) {
+            throw new IllegalArgumentException("Delta is incomplete");
+        }
+        return target;
+    }
+
+    /**
+     * Returns a map<Weak checksum, Offset> of every whole block in the base,
+     * where blocks share a checksum the first is kept.
+     * */
+    private static Map<Integer, Integer> indexBlocks(byte[] base) {
+        Map<Integer, Integer> blocks = new HashMap<>();
+        for (int offset = 0; offset + BLOCK_SIZE <= base.length; offset += BLOCK_SIZE) {
+            blocks.putIfAbsent(checksum(base, offset), offset);
+        }
+        return blocks;
+    }
+
+    /**
+     * Returns the number of bytes that match between base and target from the given offsets.
+     * */
+    private static int matchLength(byte[] base, int baseOffset, byte[] target, int targetOffset) {
+        int length = 0;
+        while (baseOffset + length < base.length && targetOffset + length < target.length
+                && base[baseOffset + length] == target[targetOffset + length]) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the weak (rsync style) checksum of the block starting at the given offset.
+     * */
+    private static int checksum(byte[] data, int offset) {
+        int a = 0;
+        int b = 0;
+        for (int i = 0; i < BLOCK_SIZE; i++) {
+            a += data[offset + i] & 0xff;
+            b += (BLOCK_SIZE - i) * (data[offset + i] & 0xff);
+        }
+        return (a & 0xffff) | (b << 16);
+    }
+
+    /**
+     * Moves a checksum one byte along, dropping 'out' from the front of the block and adding 'in' at the end.
+     * */
+    private static int roll(int weak, byte out, byte in) {
+        int a = weak & 0xffff;
+        int b = weak >>> 16;
+        a = (a - (out & 0xff) + (in & 0xff)) & 0xffff;
+        b = (b - BLOCK_SIZE * (out & 0xff) + a) & 0xffff;
+        return a | (b << 16);
+    }
+
+    private static void writeCopy(ByteArrayOutputStream out, int offset, int length) {
+        out.write(COPY);
+        writeVarint(out, offset);
+        writeVarint(out, length);
+    }
+
+    private static void writeInsert(ByteArrayOutputStream out, byte[] data, int from, int to) {
+        if (to > from) {
+            out.write(INSERT);
+            writeVarint(out, to - from);
+            out.write(data, from, to - from);
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7f) != 0) {
+            out.write((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static int readVarint(byte[] data, int[] cursor) {
+        int value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = data[cursor[0]++];
+            value |= (b & 0x7f) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+}
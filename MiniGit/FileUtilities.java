@@ -1,15 +1,42 @@
 package MiniGit;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Formatter;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
 
 public class FileUtilities {
 
+    /*
+     * Size of the buffer files are streamed through, so memory use does not grow with the size of a file.
+     * */
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    /*
+     * Suffix of the temporary files content is written to before being renamed into place.
+     * */
+    static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /*
+     * Each thread reuses a single digest rather than looking one up for every hash.
+     * */
+    private static final ThreadLocal<MessageDigest> SHA1_DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException excp) {
+            throw new IllegalArgumentException("System does not support SHA-1");
+        }
+    });
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
     /**
      * Returns a byte array of the specified object
      * */
@@ -47,24 +74,28 @@ public class FileUtilities {
     }
 
     /**
-     * Writes the given byte Array to the given file.
+     * Writes the given byte Array to the given file in place, creating or overwriting it as needed.
+     * Meant for files in the working directory, which are not flushed to disk, unlike writeContents().
      * */
     static void writeByteArray(File file, byte[] b) {
-        writeContents(file, b);
+        try {
+            Files.write(file.toPath(), b);
+        } catch (IOException excp) {
+            throw new IllegalArgumentException(excp.getMessage());
+        }
     }
 
     /** Write the result of concatenating the bytes in CONTENTS to FILE,
      *  creating or overwriting it as needed.  Each object in CONTENTS may be
-     *  either a String or a byte array.  Throws IllegalArgumentException
+     *  either a String or a byte array.  The file is replaced whole and flushed to disk
+     *  before returning, see WriteBatch.saveNow().  Throws IllegalArgumentException
      *  in case of problems. */
     static void writeContents(File file, Object... contents) {
-        try {
-            if (file.isDirectory()) {
-                throw
-                        new IllegalArgumentException("cannot overwrite directory");
-            }
-            BufferedOutputStream str =
-                    new BufferedOutputStream(Files.newOutputStream(file.toPath()));
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        File temporary = createTemporaryFile(file);
+        try (BufferedOutputStream str = new BufferedOutputStream(Files.newOutputStream(temporary.toPath()))) {
             for (Object obj : contents) {
                 if (obj instanceof byte[]) {
                     str.write((byte[]) obj);
@@ -72,35 +103,98 @@ public class FileUtilities {
                     str.write(((String) obj).getBytes(StandardCharsets.UTF_8));
                 }
             }
-            str.close();
         } catch (IOException | ClassCastException excp) {
+            temporary.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        WriteBatch.saveNow(temporary, file);
+    }
+
+    /** Deflates the given byte Array as it is written to the given file,
+     *  creating or overwriting it as needed. The file is replaced whole, and saved with
+     *  any open WriteBatch. Throws IllegalArgumentException in case of problems. */
+    static void writeCompressed(File file, byte[] content) {
+        if (file.isDirectory()) {
+            throw new IllegalArgumentException("cannot overwrite directory");
+        }
+        File temporary = createTemporaryFile(file);
+        try (OutputStream out = new DeflaterOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(temporary.toPath())))) {
+            out.write(content);
+        } catch (IOException excp) {
+            temporary.delete();
+            throw new IllegalArgumentException(excp.getMessage());
+        }
+        WriteBatch.save(temporary, file);
+    }
+
+    /**
+     * Creates and returns a new empty temporary file in the directory of the given file, named after it.
+     * */
+    static File createTemporaryFile(File file) {
+        try {
+            return Files.createTempFile(file.getAbsoluteFile().getParentFile().toPath(), file.getName(), TEMPORARY_SUFFIX).toFile();
+        } catch (IOException excp) {
+            throw new IllegalArgumentException("Unable to save " + file.getName() + ": " + excp.getMessage());
+        }
+    }
+
+    /** Return the inflated contents of a FILE written by writeCompressed() as a byte array.
+     *  Throws IllegalArgumentException in case of problems. */
+    static byte[] readCompressed(File file) {
+        try (InputStream in = openCompressed(file)) {
+            return in.readAllBytes();
+        } catch (IOException excp) {
             throw new IllegalArgumentException(excp.getMessage());
         }
     }
 
+    /** Returns a stream that inflates the content of a FILE written by writeCompressed() as it is read.
+     *  The caller is responsible for closing the stream. */
+    static InputStream openCompressed(File file) throws IOException {
+        file = WriteBatch.resolve(file);
+        if (!file.isFile()) {
+            throw new IllegalArgumentException("must be a normal file");
+        }
+        return new InflaterInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())));
+    }
+
     /**
      * Creates and returns a sha1 String based on a given byte[] or a String.
      * */
     static String sha1(Object... vals) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-1");
-            for (Object val : vals) {
-                if (val instanceof byte[]) {
-                    md.update((byte[]) val);
-                } else if (val instanceof String) {
-                    md.update(((String) val).getBytes(StandardCharsets.UTF_8));
-                } else {
-                    throw new IllegalArgumentException("Unable to convert given type to sha1");
-                }
-            }
-            Formatter result = new Formatter();
-            for (byte b : md.digest()) {
-                result.format("%02x", b);
+        MessageDigest md = sha1Digest();
+        for (Object val : vals) {
+            if (val instanceof byte[]) {
+                md.update((byte[]) val);
+            } else if (val instanceof String) {
+                md.update(((String) val).getBytes(StandardCharsets.UTF_8));
+            } else {
+                throw new IllegalArgumentException("Unable to convert given type to sha1");
             }
-            return result.toString();
-        } catch (NoSuchAlgorithmException excp) {
-            throw new IllegalArgumentException("System does not support SHA-1");
         }
+        return toHex(md.digest());
+    }
+
+    /**
+     * Returns this thread's SHA-1 digest, reset and ready for use.
+     * */
+    static MessageDigest sha1Digest() {
+        MessageDigest md = SHA1_DIGEST.get();
+        md.reset();
+        return md;
+    }
+
+    /**
+     * Returns the given digest as a lower case hex String.
+     * */
+    static String toHex(byte[] digest) {
+        char[] hex = new char[digest.length * 2];
+        for (int i = 0; i < digest.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(digest[i] >>> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[digest[i] & 0xf];
+        }
+        return new String(hex);
     }
 
     /**
@@ -112,25 +206,18 @@ public class FileUtilities {
     }
 
     /**
-     * Serialises Object and performs a sha1 hash function on the byteArray, then returns the hash as a String
+     * Performs a sha1 hash function on the byteArray and saves it to a file named after the hash,
+     * then returns the hash as a String.
+     * The content is saved compressed, the hash is calculated over the uncompressed bytes.
      */
-    public static String saveObject(Serializable object, File parentDir) {
-        byte[] byteArray = serialize(object);
+    public static String saveContent(byte[] byteArray, File parentDir) {
         String sha1Hash = sha1(byteArray);
 
         File f = new File(parentDir, sha1Hash);
-        writeByteArray(f, byteArray);
+        writeCompressed(f, byteArray);
         return sha1Hash;
     }
 
-    /**
-     * Returns sha1Hash from the byteArray of some serializable Object
-     * */
-    public static String getSha1Hash(Serializable object) {
-        byte[] byteArray = serialize(object);
-        return sha1(byteArray);
-    }
-
     /**
      * Returns sha1Hash from the byteArray
      * */
@@ -140,23 +227,21 @@ public class FileUtilities {
 
 
     /**
-     * Returns sha1Hash from the byteArray of some File
-     * */
-    public static <T extends Serializable> String getSha1HashFromFile(File file){
-        byte[] ba = getByteArrayFromFile(file);
-        return sha1(ba);
-    }
-
-    /**
-     * Returns the byte[] of a given file
+     * Returns sha1Hash of the content of some File, the file is streamed so it is never held in memory whole.
+     * Throws IllegalArgumentException in case of problems.
      * */
-    static byte[] getByteArrayFromFile(File file) {
-        try {
-            return Files.readAllBytes(file.toPath());
+    public static String getSha1HashFromFile(File file){
+        MessageDigest md = sha1Digest();
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            int length;
+            while ((length = in.read(buffer)) > 0) {
+                md.update(buffer, 0, length);
+            }
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new IllegalArgumentException(e.getMessage());
         }
-        return null;
+        return toHex(md.digest());
     }
 
     /**
@@ -287,20 +372,38 @@ public class FileUtilities {
     }
 
     /**
-     * Copies a File to the specified target location
+     * Copies a File to the specified target location.
+     * The copy is made with FileChannel.transferTo, so the operating system can copy the data without it passing
+     * through the JVM.
+     * Throws IllegalArgumentException in case of problems.
      * */
     private static void copyFile(File source, File target) {
         try (
-                InputStream in = new FileInputStream(source);
-                OutputStream out = new FileOutputStream(target)
+                FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+                FileChannel out = FileChannel.open(target.toPath(),
+                        StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)
         ) {
-            byte[] buf = new byte[1024];
-            int length;
-            while ((length = in.read(buf)) > 0) {
-                out.write(buf, 0, length);
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
             }
         } catch (IOException e) {
-            throw new RuntimeException(e);
+            throw new IllegalArgumentException("Unable to copy " + source.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Inflates the given deflated stream into the given file, creating or overwriting it as needed.
+     * The content is inflated a buffer at a time, so it is never held in memory whole. It cannot be copied with
+     * transferTo like copyFile, as every object is stored deflated, so its bytes on disk are never the file's content.
+     * Throws IllegalArgumentException in case of problems.
+     * */
+    static void inflateToFile(InputStream deflated, File target) {
+        try (InputStream in = new InflaterInputStream(deflated, new Inflater(), BUFFER_SIZE)) {
+            Files.copy(in, target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
         }
     }
 
@@ -0,0 +1,347 @@
+package MiniGit;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The LineMerge class merges two versions of a text file, line by line, against the version they both came from.
+ * Each version is compared with the base using Myers' diff, which finds the fewest lines to delete and insert,
+ * giving the hunks (runs of base lines replaced by runs of new lines) each side changed.
+ *
+ * Hunks only one side changed are taken as they are. Where hunks from both sides overlap, or touch, the lines both
+ * sides made are compared: if they are the same, they are taken once, otherwise the lines are a conflict and are
+ * written between conflict markers, after dropping any lines both sides begin or end with:
+ *
+ * <<<<<<< Head Label
+ * head's lines
+ * =======
+ * other's lines
+ * >>>>>>> Other Label
+ * */
+public class LineMerge {
+
+    static final String START_MARKER = "<<<<<<< ";
+    static final String SEPARATOR_MARKER = "=======";
+    static final String END_MARKER = ">>>>>>> ";
+
+    /*
+     * The furthest a single diff searches, in lines deleted plus inserted, before giving up on the lines it has
+     * left to compare and treating them as all changed, so pathological files cannot make a merge run for ever.
+     * */
+    static final int MAX_DIFFERENCES = 1 << 13;
+
+    /*
+     * How many bytes are checked for a NUL byte to decide whether content is binary.
+     * */
+    private static final int BINARY_CHECK_LENGTH = 8000;
+
+    /**
+     * The merged content, and the number of conflicts written to it.
+     * */
+    static class Result {
+        final byte[] content;
+        final int conflicts;
+
+        Result(byte[] content, int conflicts) {
+            this.content = content;
+            this.conflicts = conflicts;
+        }
+    }
+
+    /**
+     * Returns true if the given content looks binary, it cannot be merged line by line.
+     * */
+    static boolean isBinary(byte[] content) {
+        int length = Math.min(content.length, BINARY_CHECK_LENGTH);
+        for (int i = 0; i < length; i++) {
+            if (content[i] == 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Merges the changes head and other each made to base, see above.
+     * Conflict markers are labelled with the given head and other labels.
+     * */
+    static Result merge(byte[] base, byte[] head, byte[] other, String headLabel, String otherLabel) {
+        // Lines are numbered so equal lines have equal numbers, and are compared as ints from here on.
+        List<String> lines = new ArrayList<>();
+        Map<String, Integer> numbers = new HashMap<>();
+        int[] b = number(base, lines, numbers);
+        int[] h = number(head, lines, numbers);
+        int[] o = number(other, lines, numbers);
+
+        List<int[]> headHunks = hunks(b, h);
+        List<int[]> otherHunks = hunks(b, o);
+
+        StringBuilder merged = new StringBuilder(Math.max(head.length, other.length));
+        int conflicts = 0;
+        int basePosition = 0;
+        int nextHead = 0;
+        int nextOther = 0;
+        while (nextHead < headHunks.size() || nextOther < otherHunks.size()) {
+            // Start a chunk at the first hunk of either side, then take in every hunk that overlaps or touches it.
+            boolean headFirst = nextOther == otherHunks.size()
+                    || (nextHead < headHunks.size() && headHunks.get(nextHead)[0] <= otherHunks.get(nextOther)[0]);
+            int chunkStart = headFirst ? headHunks.get(nextHead)[0] : otherHunks.get(nextOther)[0];
+            int chunkEnd = chunkStart;
+            int firstHead = nextHead;
+            int firstOther = nextOther;
+            boolean extended = true;
+            while (extended) {
+                extended = false;
+                if (nextHead < headHunks.size() && headHunks.get(nextHead)[0] <= chunkEnd) {
+                    chunkEnd = Math.max(chunkEnd, headHunks.get(nextHead++)[1]);
+                    extended = true;
+                }
+                if (nextOther < otherHunks.size() && otherHunks.get(nextOther)[0] <= chunkEnd) {
+                    chunkEnd = Math.max(chunkEnd, otherHunks.get(nextOther++)[1]);
+                    extended = true;
+                }
+            }
+
+            append(merged, lines, b, basePosition, chunkStart);
+            basePosition = chunkEnd;
+
+            int[] headRange = sideRange(headHunks, firstHead, nextHead, chunkStart, chunkEnd);
+            int[] otherRange = sideRange(otherHunks, firstOther, nextOther, chunkStart, chunkEnd);
+            if (firstOther == nextOther) {
+                append(merged, lines, h, headRange[0], headRange[1]);
+            } else if (firstHead == nextHead) {
+                append(merged, lines, o, otherRange[0], otherRange[1]);
+            } else {
+                conflicts += appendBoth(merged, lines, h, headRange, o, otherRange, headLabel, otherLabel);
+            }
+        }
+        append(merged, lines, b, basePosition, b.length);
+        return new Result(merged.toString().getBytes(StandardCharsets.UTF_8), conflicts);
+    }
+
+    /**
+     * Writes the lines both sides made in place of the same base lines: once if they are the same, otherwise as a
+     * conflict, with the lines both begin and end with written outside the markers.
+     * Returns the number of conflicts written, 0 or 1.
+     * */
+    private static int appendBoth(StringBuilder merged, List<String> lines, int[] h, int[] headRange, int[] o,
+                                  int[] otherRange, String headLabel, String otherLabel) {
+        int headStart = headRange[0], headEnd = headRange[1];
+        int otherStart = otherRange[0], otherEnd = otherRange[1];
+        while (headStart < headEnd && otherStart < otherEnd && h[headStart] == o[otherStart]) {
+            headStart++;
+            otherStart++;
+        }
+        int headSuffix = headEnd;
+        int otherSuffix = otherEnd;
+        while (headSuffix > headStart && otherSuffix > otherStart && h[headSuffix - 1] == o[otherSuffix - 1]) {
+            headSuffix--;
+            otherSuffix--;
+        }
+
+        append(merged, lines, h, headRange[0], headStart);
+        if (headStart == headSuffix && otherStart == otherSuffix) {
+            append(merged, lines, h, headSuffix, headEnd);
+            return 0;
+        }
+        merged.append(START_MARKER).append(headLabel).append('\n');
+        appendEndingLine(merged, lines, h, headStart, headSuffix);
+        merged.append(SEPARATOR_MARKER).append('\n');
+        appendEndingLine(merged, lines, o, otherStart, otherSuffix);
+        merged.append(END_MARKER).append(otherLabel).append('\n');
+        append(merged, lines, h, headSuffix, headEnd);
+        return 1;
+    }
+
+    /**
+     * Returns the range of the side's lines that replace base lines [chunkStart, chunkEnd), given the side's hunks
+     * [first, end) that fall within it. Lines of the chunk the side left unchanged map straight across.
+     * */
+    private static int[] sideRange(List<int[]> hunks, int first, int end, int chunkStart, int chunkEnd) {
+        if (first == end) {
+            return null;
+        }
+        int[] firstHunk = hunks.get(first);
+        int[] lastHunk = hunks.get(end - 1);
+        return new int[]{firstHunk[2] - (firstHunk[0] - chunkStart), lastHunk[3] + (chunkEnd - lastHunk[1])};
+    }
+
+    private static void append(StringBuilder merged, List<String> lines, int[] numbers, int from, int to) {
+        for (int i = from; i < to; i++) {
+            merged.append(lines.get(numbers[i]));
+        }
+    }
+
+    /**
+     * Appends the given lines as append() does, ending the last with a line break if it has none,
+     * so a conflict marker after it starts on its own line.
+     * */
+    private static void appendEndingLine(StringBuilder merged, List<String> lines, int[] numbers, int from, int to) {
+        append(merged, lines, numbers, from, to);
+        if (from < to && merged.charAt(merged.length() - 1) != '\n') {
+            merged.append('\n');
+        }
+    }
+
+    /**
+     * Splits the given content into lines, each keeping its line break, and returns the number of each line.
+     * */
+    private static int[] number(byte[] content, List<String> lines, Map<String, Integer> numbers) {
+        String text = new String(content, StandardCharsets.UTF_8);
+        List<Integer> numbered = new ArrayList<>();
+        int start = 0;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            end = end < 0 ? text.length() : end + 1;
+            String line = text.substring(start, end);
+            numbered.add(numbers.computeIfAbsent(line, l -> {
+                lines.add(l);
+                return lines.size() - 1;
+            }));
+            start = end;
+        }
+        int[] result = new int[numbered.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = numbered.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the hunks that turn base into side, in order, each as {Base Start, Base End, Side Start, Side End}.
+     * */
+    static List<int[]> hunks(int[] base, int[] side) {
+        boolean[] baseChanged = new boolean[base.length];
+        boolean[] sideChanged = new boolean[side.length];
+        diff(base, 0, base.length, side, 0, side.length, baseChanged, sideChanged);
+
+        List<int[]> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < base.length || j < side.length) {
+            if (i < base.length && j < side.length && !baseChanged[i] && !sideChanged[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int baseStart = i;
+            int sideStart = j;
+            while (i < base.length && baseChanged[i]) {
+                i++;
+            }
+            while (j < side.length && sideChanged[j]) {
+                j++;
+            }
+            hunks.add(new int[]{baseStart, i, sideStart, j});
+        }
+        return hunks;
+    }
+
+    /**
+     * Marks the lines of a[aStart, aEnd) and b[bStart, bEnd) that are not part of a longest common subsequence,
+     * the lines deleted from a and inserted into b.
+     * Splits the ranges at the middle of a shortest edit path and recurses, so memory use is linear.
+     * */
+    private static void diff(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd,
+                             boolean[] aChanged, boolean[] bChanged) {
+        while (aStart < aEnd && bStart < bEnd && a[aStart] == b[bStart]) {
+            aStart++;
+            bStart++;
+        }
+        while (aStart < aEnd && bStart < bEnd && a[aEnd - 1] == b[bEnd - 1]) {
+            aEnd--;
+            bEnd--;
+        }
+        if (aStart == aEnd || bStart == bEnd) {
+            mark(aChanged, aStart, aEnd);
+            mark(bChanged, bStart, bEnd);
+            return;
+        }
+        int[] middle = middle(a, aStart, aEnd, b, bStart, bEnd);
+        if (middle == null) {
+            mark(aChanged, aStart, aEnd);
+            mark(bChanged, bStart, bEnd);
+            return;
+        }
+        diff(a, aStart, aStart + middle[0], b, bStart, bStart + middle[1], aChanged, bChanged);
+        diff(a, aStart + middle[0], aEnd, b, bStart + middle[1], bEnd, aChanged, bChanged);
+    }
+
+    /**
+     * Returns the point {x, y}, relative to the start of each range, where a shortest edit path crosses the middle,
+     * found by searching from both ends at once until the two searches meet. Returns null if the ranges are more
+     * than MAX_DIFFERENCES apart.
+     * */
+    private static int[] middle(int[] a, int aStart, int aEnd, int[] b, int bStart, int bEnd) {
+        int n = aEnd - aStart;
+        int m = bEnd - bStart;
+        int maxD = Math.min((n + m + 1) / 2, MAX_DIFFERENCES);
+        int offset = maxD + 1;
+        int[] forward = new int[2 * offset + 1];
+        int[] backward = new int[2 * offset + 1];
+        Arrays.fill(forward, -1);
+        Arrays.fill(backward, -1);
+        forward[offset + 1] = 0;
+        backward[offset + 1] = 0;
+        int delta = n - m;
+        boolean front = (delta & 1) != 0; // the searches meet while extending forwards only if delta is odd
+        int kStart = 0, kEnd = 0, rStart = 0, rEnd = 0;
+
+        for (int d = 0; d < maxD; d++) {
+            for (int k = -d + kStart; k <= d - kEnd; k += 2) {
+                int x = (k == -d || (k != d && forward[offset + k - 1] < forward[offset + k + 1]))
+                        ? forward[offset + k + 1] : forward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aStart + x] == b[bStart + y]) {
+                    x++;
+                    y++;
+                }
+                forward[offset + k] = x;
+                if (x > n) {
+                    kEnd += 2;
+                } else if (y > m) {
+                    kStart += 2;
+                } else if (front) {
+                    int r = offset + delta - k;
+                    if (r >= 0 && r < backward.length && backward[r] != -1 && x >= n - backward[r]) {
+                        return new int[]{x, y};
+                    }
+                }
+            }
+            for (int k = -d + rStart; k <= d - rEnd; k += 2) {
+                int x = (k == -d || (k != d && backward[offset + k - 1] < backward[offset + k + 1]))
+                        ? backward[offset + k + 1] : backward[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[aEnd - x - 1] == b[bEnd - y - 1]) {
+                    x++;
+                    y++;
+                }
+                backward[offset + k] = x;
+                if (x > n) {
+                    rEnd += 2;
+                } else if (y > m) {
+                    rStart += 2;
+                } else if (!front) {
+                    int f = offset + delta - k;
+                    if (f >= 0 && f < forward.length && forward[f] != -1) {
+                        int forwardX = forward[f];
+                        if (forwardX >= n - x) {
+                            return new int[]{forwardX, forwardX - (f - offset)};
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+
+    private static void mark(boolean[] changed, int from, int to) {
+        for (int i = from; i < to; i++) {
+            changed[i] = true;
+        }
+    }
+}
@@ -1,9 +1,10 @@
 package MiniGit;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
@@ -11,51 +12,95 @@ import java.util.Map;
  * */
 public class Log {
 
+    static final int GLOBAL_LOG_BATCH = 1024;
+
     /**
      * Creates a Log String of the given Map<String, Commit> Object in the order
      * given by the Map (This may be ordered or unordered).
      * */
     public static ArrayList<String> createLog(Map<String, Commit> commitMap){
+        ArrayList<String> log = new ArrayList<>();
+
+        for (String id: commitMap.keySet()){
+            log.add(createLogEntry(id, commitMap.get(id)));
+        }
+        return log;
+    }
+
+    /**
+     * Creates the Log String of a single Commit.
+     * */
+    public static String createLogEntry(String id, Commit commit){
         String divider = "===\n";
-        String commitId = "Could Not Get CommitID";
-        String branch = "";
-        String merge = "";
-        String date = "Could Not Get Date";
-        String message = "Could Not Get Date";
-        String trackedFiles = "";
         String emptySpace = "\n";
 
-        ArrayList<String> log = new ArrayList<>();
+        String commitId = "Commit: " + id + "\n";
+        String branch = "Branch: " + commit.branch + "\n";
+        String merge = "";
+        if (commit.getSecondParentSha1() != null){
+            merge = "Merged: " + commit.getFirstParentSha1() + "\n" + "With: " + commit.getSecondParentSha1() + "\n";
+        }
+        String date = "Date:   " + commit.getTimestamp()  + "\n";
+        String message = "\"" + commit.getMessage()  + "\"" + "\n";
 
-        for (String id: commitMap.keySet()){
-            Commit commit = commitMap.get(id);
+        return divider + commitId + branch + merge + date + message + emptySpace;
+    }
 
-            commitId = "Commit: " + id + "\n";
-            branch = "Branch: " + commit.branch + "\n";
-            if (commit.getSecondParentSha1() != null){
-                merge = "Merged: " + commit.getFirstParentSha1() + "\n" + "With: " + commit.getSecondParentSha1() + "\n";
+    /**
+     * Writes the Log String of each of the given Commits to the given Writer as soon as it is read,
+     * leaving out the first 'skip' Commits and stopping after 'limit' Commits, a negative limit means no limit.
+     * Commits after the limit are never read from the Iterator.
+     * */
+    public static void writeLog(Iterator<Map.Entry<String, Commit>> commits, int skip, int limit, Writer out) throws IOException {
+        for (int i = 0; i < skip && commits.hasNext(); i++) {
+            commits.next();
+        }
+        for (int written = 0; (limit < 0 || written < limit) && commits.hasNext(); written++) {
+            Map.Entry<String, Commit> commit = commits.next();
+            if (commit.getValue() == null) {
+                break;
             }
-            date = "Date:   " + commit.getTimestamp()  + "\n";
-            message = "\"" + commit.getMessage()  + "\"" + "\n";
-            trackedFiles = commit.getTrackedFiles().toString() + "\n";
-
-            log.add(divider + commitId + branch + merge + date + message+ emptySpace);
+            out.write(createLogEntry(commit.getKey(), commit.getValue()));
+            out.write(System.lineSeparator());
         }
-        return log;
+        out.flush();
     }
 
 
     /**
-     * Creates a log String of all Commits in the given directory, in no particular order.
+     * Writes the Log String of every Commit, packed or saved in the given directory, to the given Writer,
+     * newest first. Commits are read on every core: first for their times, which for Commits in the given commit
+     * graph file are looked up there instead, then, once sorted, again GLOBAL_LOG_BATCH at a time to be formatted.
+     * Only one batch of Log Strings is held in memory at once, each is written as soon as its batch is done.
      * */
-    public static ArrayList<String> createGlobalLog(File commitsDir) {
-
-        HashMap<String, Commit> map = new HashMap<>();
-        for (File commit: commitsDir.listFiles()){
-            map.put(commit.getName(), FileUtilities.readFile(commit, Commit.class));
-        }
+    public static void writeGlobalLog(File commitsDir, File graphFile, Writer out) throws IOException {
+        List<String> ids = CommitGraph.getAllCommitIds(commitsDir);
+        CommitGraphFile graph = CommitGraphFile.open(graphFile);
 
-        return createLog(map);
+        Map<String, Long> times = new ConcurrentHashMap<>(ids.size());
+        Parallel.forEach(ids, id -> {
+            int position = graph == null ? -1 : graph.find(id);
+            if (position >= 0) {
+                times.put(id, graph.getTimeMillis(position));
+            } else {
+                Commit commit = CommitGraph.getCommit(commitsDir, id);
+                if (commit != null) {
+                    times.put(id, commit.getTimeMillis());
+                }
+            }
+        });
+        ids.removeIf(id -> !times.containsKey(id));
+        ids.sort(Comparator.comparing((String id) -> times.get(id)).reversed().thenComparing(Comparator.naturalOrder()));
 
+        for (int start = 0; start < ids.size(); start += GLOBAL_LOG_BATCH) {
+            List<String> batch = ids.subList(start, Math.min(ids.size(), start + GLOBAL_LOG_BATCH));
+            Map<String, String> entries = new ConcurrentHashMap<>(batch.size());
+            Parallel.forEach(batch, id -> entries.put(id, createLogEntry(id, CommitGraph.getCommit(commitsDir, id))));
+            for (String id : batch) {
+                out.write(entries.get(id));
+                out.write(System.lineSeparator());
+            }
+        }
+        out.flush();
     }
 }
@@ -1,9 +1,16 @@
 package MiniGit;
 
+import java.util.Set;
+
 /**Entry Point of MiniGit - your favourite lightweight version control system.
  * @author Hamish Young
  * */
 public class Main {
+
+    /* Commands that change the repository, which take the RepositoryLock. Every other command only reads. */
+    private static final Set<String> WRITING_COMMANDS =
+            Set.of("commit", "add", "rm", "checkout", "branch", "rm-branch", "reset", "merge", "gc");
+
     public static void main(String[] args) {
 
         if (args.length == 0) {
@@ -15,11 +22,35 @@ public class Main {
         String[] commandArgs = getCommandArgs(args, args.length);
         int length =  commandArgs.length;
 
-        if (!repoAlreadyExists() && !commandIsInit(command)){
-            System.out.println("MiniGit has not been initialised in this directory.");
-            System.exit(0);
+        try {
+            Repository.upgradeFormat();
+
+            if (!repoAlreadyExists() && !commandIsInit(command)){
+                System.out.println("MiniGit has not been initialised in this directory.");
+                return;
+            }
+
+            if (WRITING_COMMANDS.contains(command)) {
+                Repository.lockForWriting();
+                WriteBatch.begin();
+            }
+            run(command, commandArgs, length);
+            // Only a command that completed saves what it wrote, see WriteBatch and RepositorySession.
+            WriteBatch.end();
+            RepositorySession.end();
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+        } finally {
+            WriteBatch.discard();
+            RepositorySession.discard();
+            RepositoryLock.release();
         }
+    }
 
+    /**
+     * Runs the given command. Commands may throw IllegalArgumentException to report a failure to the user.
+     * */
+    private static void run(String command, String[] commandArgs, int length) {
         switch (command) {
             case "init":
                 if (repoAlreadyExists()) {
@@ -38,7 +69,7 @@ public class Main {
                 break;
 
             case "add":
-                if (!oneArgumentMax(length)) {
+                if (length < 1) {
                     printInvalidArgsWarning();
                 } else {
                     Repository.addSwitch(commandArgs, length);
@@ -54,7 +85,7 @@ public class Main {
                 break;
 
             case "log":
-                Repository.log();
+                Repository.logSwitch(commandArgs, length);
                 break;
 
             case "global-log":
@@ -62,10 +93,10 @@ public class Main {
                 break;
 
             case "find":
-                if (!oneArgumentMax(length)) {
+                if (length < 1) {
                     printInvalidArgsWarning();
                 } else {
-                    Repository.find(commandArgs[0]);
+                    Repository.findSwitch(commandArgs, length);
                 }
                 break;
 
@@ -90,10 +121,12 @@ public class Main {
                 break;
 
             case "rm-branch":
-                if (!oneArgumentMax(length)){
+                if (length == 2 && commandArgs[0].equals("-f")) {
+                    Repository.rmBranch(commandArgs[1], true);
+                } else if (!oneArgumentMax(length)){
                     printInvalidArgsWarning();
                 } else {
-                    Repository.rmBranch(commandArgs[0]);
+                    Repository.rmBranch(commandArgs[0], false);
                 }
                 break;
 
@@ -112,6 +145,10 @@ public class Main {
                     Repository.merge(commandArgs[0]);
                 }
                 break;
+
+            case "gc":
+                Repository.gc();
+                break;
         }
     }
 
@@ -4,11 +4,9 @@ import java.io.File;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 
-import static MiniGit.FileUtilities.newFiles;
-import static MiniGit.FileUtilities.readContentsAsString;
-
 /**
  * The Merger class merges the tracked files of two branches according to the content of the split point
  * and the merge rules
@@ -23,14 +21,27 @@ public class Merger {
     File storedFiles;
     Map<String, String> mergedFiles;
     String message;
+    boolean reportConflicts;
+    String headBranch;
+    String otherBranch;
 
     Merger(Commit splitPoint, Commit head, Commit other, File storedFileLocation){
+        this(splitPoint, head, other, storedFileLocation, true);
+    }
+
+    /**
+     * Merges as above, conflicts are only printed if reportConflicts is true.
+     * */
+    Merger(Commit splitPoint, Commit head, Commit other, File storedFileLocation, boolean reportConflicts){
+        this.reportConflicts = reportConflicts;
         this.splitPoint = splitPoint.getTrackedFiles();
         this.head = head.getTrackedFiles();
         this.other = other.getTrackedFiles();
         storedFiles = storedFileLocation;
 
-        message = "Merged " + other.getBranch() + " into " + head.getBranch() + "\n";
+        headBranch = head.getBranch();
+        otherBranch = other.getBranch();
+        message = "Merged " + otherBranch + " into " + headBranch + "\n";
         mergedFiles = merge();
 
     }
@@ -82,8 +93,6 @@ public class Merger {
      * */
     private String selectVersionToKeep(String name){
 
-        String result;
-
         if (!nameContainedByAtLeastOne(name)){
             throw new IllegalArgumentException("File name must be present in at least one branch");
         }
@@ -92,86 +101,35 @@ public class Merger {
         String otherVersion = other.get(name);
         String splitVersion = splitPoint.get(name);
 
+        // A version of null means the file is not present.
 
-        if (nameContainedByAll(name) && splitVersion.equals(headVersion) && splitVersion.equals(otherVersion)){
-            return splitVersion;
-        }
-        // If a file name is found in all three
-        // And splitPoint has the same version as head
-        // but others version is different
-        // -> That means it has been modified in other
-        if (nameContainedByAll(name) && splitVersion.equals(otherVersion) && !splitVersion.equals(headVersion)){
-            //    keep other version
-            result = otherVersion;
-            return result;
-        }
-
-
-        // If a file name is found in all three
-        // And splitPoint has the same version has other
-        // but head versions copy is different
-        // -> That means it has been modified in head
-        if (nameContainedByAll(name) && splitVersion.equals(otherVersion) && !splitVersion.equals(headVersion)){
-        //          keep head version
-            result = headVersion;
-            return result;
-        }
-
-        // if a file name is found in all three
-        // but is different in all three
-        // it has been modified in both head and other
-        // this is a merge conflict
-        if (
-                nameContainedByAll(name) &&
-                        !splitVersion.equals(headVersion) &&
-                        !splitVersion.equals(otherVersion) &&
-                        !headVersion.equals(otherVersion)
-        ) {
-            System.out.println("Merge Conflict Found -> " + name);
-            return conflictResolver(name, headVersion, otherVersion);
-        }
-
-        // if splitPoint and OTHER do not contain a file of this name,
-        // but head does
-        // -> it has been created in head
-        if (!splitPoint.containsKey(name) && !other.containsKey(name) && head.containsKey(name)){
-            // keep file from head
-            result = headVersion;
-            return result;
-        }
-
-        // if splitPoint and HEAD do not contain a file of this name,
-        // but other does
-        // -> it has been created in other
-        if (!splitPoint.containsKey(name) && !head.containsKey(name) && other.containsKey(name)) {
-            // keep file from other
-            result = otherVersion;
-            return result;
+        // if head and other have the same version,
+        // whether unchanged, changed the same way, or deleted in both
+        // -> keep it
+        if (Objects.equals(headVersion, otherVersion)){
+            return headVersion;
         }
 
-        // if split and other have same version,
-        // and no file of that name exists in head
-        // -> it has been deleted in head
-        if (splitVersion != null && splitVersion.equals(otherVersion) && !head.containsKey(name)){
-            return null;
+        // if splitPoint has the same version as head
+        // but others version is different
+        // -> it has been modified, created or deleted in other only
+        if (Objects.equals(splitVersion, headVersion)){
+            // keep other version
+            return otherVersion;
         }
 
-        // if split and head have same version,
-        // and no file of that name exists in other
-        // -> it has been deleted in other
-        if (splitVersion != null && splitVersion.equals(headVersion) && !other.containsKey(name)){
-            // do not keep file
-            return null;
+        // if splitPoint has the same version as other
+        // but heads version is different
+        // -> it has been modified, created or deleted in head only
+        if (Objects.equals(splitVersion, otherVersion)){
+            // keep head version
+            return headVersion;
         }
 
-        throw new IllegalArgumentException("A valid argument must be examinable for merge.");
-    }
-
-    /**
-     * Checks head, other, and splitPoint and returns true if all three contain said 'name' as a key.
-     * */
-    private Boolean nameContainedByAll(String name){
-        return (head.containsKey(name) && other.containsKey(name) && splitPoint.containsKey(name));
+        // head and other have both changed the file, in different ways
+        // (including one modifying a file the other deleted)
+        // -> merge their changes line by line, any that overlap are a merge conflict
+        return conflictResolver(name, splitVersion, headVersion, otherVersion);
     }
 
     /**
@@ -182,58 +140,56 @@ public class Merger {
     }
 
     /**
-     * Handles Merge conflicts that arise during a merge.
-     * Two files that are in conflict are concatenated to one file in a format to help the user differentiate
-     * the separate files and resolve the conflict manually.
-     * Returns a string of the content of the concatenated files.
+     * Handles files changed by both head and other during a merge.
+     * The changes each made to the split point version are merged line by line, see LineMerge, so changes to
+     * different lines are both kept, and only lines both changed differently are written as a conflict,
+     * between markers that help the user resolve it manually. A deleted version is merged as empty.
+     * Binary files cannot be merged, head's version is kept instead, if there is one.
+     * Returns the Sha1 of the merged content.
      * */
-    private String conflictResolver(String name, String headVersion, String otherVersion){
-
-            File headVersionFile = newFiles(storedFiles, name, headVersion);
-            File otherVersionFile = newFiles(storedFiles, name, otherVersion);
+    private String conflictResolver(String name, String splitVersion, String headVersion, String otherVersion){
 
             try {
 
-                String headVersionContent = readContentsAsString(headVersionFile);
-                String otherVersionContent = readContentsAsString(otherVersionFile);
-                String mergedString = concatConflictStrings(headVersionContent, otherVersionContent);
-                message += ("Encountered a merge conflict with file: " + name) + "\n";
-                return StoredFiles.writeStringToMiniGitFormatFile(name, mergedString, storedFiles);
+                byte[] splitContent = readBlob(splitVersion);
+                byte[] headContent = readBlob(headVersion);
+                byte[] otherContent = readBlob(otherVersion);
+
+                if (LineMerge.isBinary(splitContent) || LineMerge.isBinary(headContent) || LineMerge.isBinary(otherContent)) {
+                    reportConflict(name);
+                    message += "Encountered a merge conflict with binary file: " + name + ", kept the version in "
+                            + (headVersion != null ? headBranch : otherBranch) + "\n";
+                    return headVersion != null ? headVersion : otherVersion;
+                }
+
+                LineMerge.Result merged = LineMerge.merge(splitContent, headContent, otherContent, headBranch, otherBranch);
+                if (merged.conflicts > 0) {
+                    reportConflict(name);
+                    message += ("Encountered a merge conflict with file: " + name) + "\n";
+                }
+                return ObjectStore.writeBlob(storedFiles, merged.content);
 
             } catch (IllegalArgumentException e){
-                System.out.println("Unable to Resolve Conflict -> Files cannot be read as text");
+                System.out.println("Unable to Resolve Conflict -> Files cannot be read");
                 System.out.println(e.getMessage());
                 return null;
             }
     }
 
+    private void reportConflict(String name) {
+        if (reportConflicts) {
+            System.out.println("Merge Conflict Found -> " + name);
+        }
+    }
+
     /**
-     * Formats given strings according to the conflict File format.
+     * Reads the stored object with the given Sha1, a Sha1 of null (a file not present) reads as empty.
      * */
-    private String concatConflictStrings(String headerVersionString, String otherVersionString){
-
-        String mergeFormatTop =
-                """
-                
-                <<<<<<<<<
-                Content of conflicting file in Head
-                
-                """;
-        String mergeFormatMiddle =
-                """
-
-                ==========           ==========
-                Content of conflicting file in other Specified Branch
-                
-                """;
-        String mergeFormatBottom = "\n\n>>>>>>>>>>";
-
-        return mergeFormatTop +
-                headerVersionString +
-                mergeFormatMiddle +
-                otherVersionString +
-                mergeFormatBottom;
+    private byte[] readBlob(String sha1){
+        if (sha1 == null) {
+            return new byte[0];
+        }
+        return ObjectStore.readBlob(storedFiles, sha1);
     }
 
-
 }
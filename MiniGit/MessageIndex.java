@@ -0,0 +1,221 @@
+package MiniGit;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * The MessageIndex holds the message, branch and time of every Commit in a single file, so find can search every
+ * message without reading a single Commit:
+ *
+ * Signature "MGMI", Version, Length, then per Commit: 20 byte Sha1, Time, Branch Length, Branch, Message Length,
+ * Message. Strings are saved as UTF-8.
+ *
+ * Length is the length of the file up to the end of the last complete record. Records are appended past it,
+ * flushed to disk, and only then is Length moved past them, so a record left partly written is never read,
+ * and is written over by the next append. The file is never cut short or rewritten in place, so a search by a
+ * process without the RepositoryLock can read it while a writer appends. Records are only appended while holding
+ * the RepositoryLock.
+ *
+ * A Commit's record is appended before any branch is moved to it, and the upgrade to RepositoryFormat 9 recorded
+ * every Commit made before the index existed, so the index holds every Commit without any being read.
+ * An index that is missing or damaged is read as empty: a search then reads every Commit, and builds the index
+ * again from them if it holds the RepositoryLock.
+ * */
+public class MessageIndex {
+
+    static final String SIGNATURE = "MGMI";
+    static final int VERSION = 2;
+    private static final int LENGTH_OFFSET = SIGNATURE.length() + 4;
+    private static final int HEADER_LENGTH = LENGTH_OFFSET + 8;
+
+    /**
+     * The indexed details of a single Commit.
+     * */
+    static class Entry {
+        final String commitID;
+        final long timeMillis;
+        final String branch;
+        final String message;
+
+        Entry(String commitID, long timeMillis, String branch, String message) {
+            this.commitID = commitID;
+            this.timeMillis = timeMillis;
+            this.branch = branch;
+            this.message = message;
+        }
+    }
+
+    /**
+     * Creates an empty index, replacing any index already in the given file.
+     * Throws IllegalArgumentException if the index cannot be written.
+     * */
+    static void create(File indexFile) {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+            header.put(SIGNATURE.getBytes(StandardCharsets.US_ASCII)).putInt(VERSION).putLong(HEADER_LENGTH).flip();
+            channel.write(header, 0);
+            channel.force(false);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to create the message index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Appends the record of the given Commit to the index, which is flushed to disk before returning.
+     * Nothing is appended to an index that is missing or damaged, as the next search reads every Commit.
+     * Throws IllegalArgumentException if the record cannot be written.
+     * */
+    static void append(File indexFile, String commitID, Commit commit) {
+        append(indexFile, List.of(new Entry(commitID, commit.getTimeMillis(), commit.branch, commit.getMessage())));
+    }
+
+    private static void append(File indexFile, List<Entry> entries) {
+        if (!indexFile.exists()) {
+            return;
+        }
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(records)) {
+            for (Entry entry : entries) {
+                PackFile.writeSha1(out, entry.commitID);
+                out.writeLong(entry.timeMillis);
+                writeString(out, entry.branch == null ? "" : entry.branch);
+                writeString(out, entry.message);
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long length = readLength(channel);
+            if (length < 0) {
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(records.toByteArray());
+            long position = length;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            channel.force(false);
+            channel.write(ByteBuffer.allocate(8).putLong(0, position), LENGTH_OFFSET);
+            channel.force(false);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to update the message index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the Length saved in the header of the index open on the given channel,
+     * or -1 if the index is damaged.
+     * */
+    private static long readLength(FileChannel channel) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+        while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+            // read until the header is complete
+        }
+        if (header.hasRemaining()) {
+            return -1;
+        }
+        byte[] signature = new byte[SIGNATURE.length()];
+        header.get(0, signature);
+        long length = header.getLong(LENGTH_OFFSET);
+        if (!SIGNATURE.equals(new String(signature, StandardCharsets.US_ASCII)) || header.getInt(SIGNATURE.length()) != VERSION
+                || length < HEADER_LENGTH || length > channel.size()) {
+            return -1;
+        }
+        return length;
+    }
+
+    /**
+     * Returns the IDs of the Commits whose message is accepted by the given test, newest first.
+     * If branch is not null, only Commits made on that branch are returned.
+     * A missing or damaged index is only built again if saveMissing is true.
+     * */
+    static List<String> search(File indexFile, File commitsDir, Predicate<String> messageMatches, String branch,
+                               boolean saveMissing) {
+        List<Entry> found = new ArrayList<>();
+        for (Entry entry : readAll(indexFile, commitsDir, saveMissing)) {
+            if ((branch == null || branch.equals(entry.branch)) && messageMatches.test(entry.message)) {
+                found.add(entry);
+            }
+        }
+        found.sort(Comparator.comparingLong((Entry e) -> e.timeMillis).reversed());
+        List<String> ids = new ArrayList<>(found.size());
+        found.forEach(entry -> ids.add(entry.commitID));
+        return ids;
+    }
+
+    /**
+     * Returns the record of every Commit. If the index is missing or damaged, every Commit is read instead,
+     * and the index built again from them if rebuild is true, which the caller must only pass while holding the
+     * RepositoryLock.
+     * */
+    static Collection<Entry> readAll(File indexFile, File commitsDir, boolean rebuild) {
+        Map<String, Entry> entries = read(indexFile);
+        if (entries != null) {
+            return entries.values();
+        }
+
+        List<Entry> all = new ArrayList<>();
+        for (String id : CommitGraph.getAllCommitIds(commitsDir)) {
+            Commit c = CommitGraph.getCommit(commitsDir, id);
+            if (c != null) {
+                all.add(new Entry(id, c.getTimeMillis(), c.branch, c.getMessage()));
+            }
+        }
+        if (rebuild) {
+            create(indexFile);
+            append(indexFile, all);
+        }
+        return all;
+    }
+
+    /**
+     * Reads every record in the index, or returns null if the index is missing or damaged.
+     * */
+    private static Map<String, Entry> read(File indexFile) {
+        if (!indexFile.exists()) {
+            return null;
+        }
+        Map<String, Entry> entries = new LinkedHashMap<>();
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            long length = readLength(channel);
+            if (length < 0) {
+                return null;
+            }
+            channel.position(HEADER_LENGTH);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+            long position = HEADER_LENGTH;
+            while (position < length) {
+                String id = PackFile.readSha1(in);
+                long time = in.readLong();
+                byte[] branch = readString(in);
+                byte[] message = readString(in);
+                entries.put(id, new Entry(id, time, new String(branch, StandardCharsets.UTF_8),
+                        new String(message, StandardCharsets.UTF_8)));
+                position += PackIndex.SHA1_BYTES + 8 + 4 + branch.length + 4 + message.length;
+            }
+        } catch (IOException | NegativeArraySizeException e) {
+            return null;
+        }
+        return entries;
+    }
+
+    private static void writeString(DataOutput out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static byte[] readString(DataInput in) throws IOException {
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
@@ -2,24 +2,27 @@ package MiniGit;
 
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 /**
  * A serializable class that represents the current state of the MiniGit Program at any given time.
- * Each Method that mutates the state in some way calls Save() and the clas sis written to the given name and location
- * as specified on initialization.
+ * Each Method that mutates the state in some way calls changed(), and the class is written to the given name and
+ * location as specified on initialization when the RepositorySession holding it ends.
+ * The Commit each branch points to is stored by Refs, the head Commit is the one the current branch points to.
  * */
 public class MiniGitState extends SavableState {
+    private static final long serialVersionUID = 7741598271021735832L;
+
+    /* The head and branches as saved before Refs were introduced, only read by takeLegacyBranches() */
     private String head;
-    private String branch;
     private HashMap<String, String> branches;
+
+    private String branch;
     private Set<String> stagedToRemove;
 
-    MiniGitState(String head, String filePath, String name, String defaultBranch) {
+    MiniGitState(String filePath, String name, String defaultBranch) {
         super(name, filePath);
-        this.head = head;
-        branches = new HashMap<>();
-        branches.put(defaultBranch, null);
         branch = defaultBranch;
         this.stagedToRemove = new HashSet<>();
         this.save();
@@ -29,17 +32,34 @@ public class MiniGitState extends SavableState {
      * Returns a string containing the Sha1 Commit ID of the current head commit.
      * */
     public String getHead(){
-        return head;
+        return Refs.read(Repository.REFS_DIR, branch);
     }
 
     /**
-     * Moves the head pointer to the newly specified Commit.
-     * The branch pointer of the current branch is updated to reflect the change as well.
+     * Moves the head pointer to the newly specified Commit, if it still points to the expected Commit,
+     * see Refs.update(). The branch pointer of the current branch is updated to reflect the change as well.
      * */
-    public void setNewHead(String toCommit) {
-        head = toCommit;
-        updateBranchID(branch);
-        save();
+    public void setNewHead(String expectedCommit, String toCommit) {
+        Refs.update(Repository.REFS_DIR, branch, expectedCommit, toCommit);
+    }
+
+    /**
+     * Returns the map<Name, Commit ID> of branches saved in this state before Refs were introduced, and forgets it.
+     * Returns an empty map if there is none.
+     * */
+    Map<String, String> takeLegacyBranches(){
+        Map<String, String> legacy = new HashMap<>();
+        if (branches != null) {
+            branches.forEach((name, id) -> {
+                if (id != null) {
+                    legacy.put(name, id);
+                }
+            });
+            branches = null;
+            head = null;
+            changed();
+        }
+        return legacy;
     }
 
 
@@ -48,21 +68,24 @@ public class MiniGitState extends SavableState {
      * */
     public void stageForRemoval(String fileName){
         stagedToRemove.add(fileName);
-        save();
+        changed();
     }
 
     /**
-     * Returns a Set<String> of files staged for removal.
+     * Empties the Set<String> of files staged for removal.
      * */
-    public Set<String> getUnstagedFiles(){
-        return stagedToRemove;
+    public void clearStagedForRemoval(){
+        if (!stagedToRemove.isEmpty()) {
+            stagedToRemove.clear();
+            changed();
+        }
     }
 
     /**
-     * Updates the branch pointer of the given branch to the current head commit.
+     * Returns a Set<String> of files staged for removal.
      * */
-    private void updateBranchID(String branch) {
-        branches.put(branch, head);
+    public Set<String> getUnstagedFiles(){
+        return stagedToRemove;
     }
 
     /**
@@ -76,7 +99,7 @@ public class MiniGitState extends SavableState {
      * Returns a String of the Commit Id of the given branch names pointer.
      * */
     public String getBranchCommitID(String name){
-        String commitId = branches.get(name);
+        String commitId = Refs.read(Repository.REFS_DIR, name);
         if (commitId != null) {
             return commitId;
         } else {
@@ -89,17 +112,25 @@ public class MiniGitState extends SavableState {
      * Returns a Set<String> of branch names.
      * */
     public Set<String> getAllBranchNames(){
-        return branches.keySet();
+        return Refs.readAll(Repository.REFS_DIR).keySet();
     }
 
     /**
-     * Adds a new branch to the branches Map<String,String> with the given name as the key,
-     * and the current head as the value.
+     * Adds a new branch with the given name, pointing to the current head.
      * */
     public void addNewBranch(String name){
         if (name != null) {
-            this.branches.put(name, head);
-            this.save();
+            String invalid = Refs.checkName(name);
+            String clash = invalid == null ? Refs.findClash(Repository.REFS_DIR, name) : null;
+            if (invalid != null) {
+                System.out.println(invalid);
+            } else if (Refs.exists(Repository.REFS_DIR, name)) {
+                System.out.println("A branch with that name already exists.");
+            } else if (clash != null) {
+                System.out.println(Refs.clashMessage(name, clash));
+            } else {
+                Refs.update(Repository.REFS_DIR, name, null, getHead());
+            }
         }
     }
 
@@ -107,10 +138,9 @@ public class MiniGitState extends SavableState {
      * Moves the head pointer to the specified branch head.
      * */
     public boolean setBranchAsHead(String branch){
-        if (branches.containsKey(branch)){
+        if (Refs.exists(Repository.REFS_DIR, branch)){
             this.branch = branch;
-            this.head = branches.get(branch);
-            save();
+            changed();
             return true;
         } else {
             System.out.println("Branch: \"" + branch + "\" does not exist.");
@@ -119,20 +149,19 @@ public class MiniGitState extends SavableState {
     }
 
     /**
-     * Removes the specified branch from the branches map.
+     * Removes the specified branch.
      * */
     public void removeBranch(String name){
 
-        if (branches.containsKey(name)){
+        if (Refs.exists(Repository.REFS_DIR, name)){
              if (!branch.equals(name)) {
 
-                 branches.remove(name);
-                 save();
+                 Refs.delete(Repository.REFS_DIR, name);
              } else {
                  System.out.println("Current branch cannot be removed.");
              }
         } else {
-            System.out.println("Branch: \"" + branch + "\" does not exist.");
+            System.out.println("Branch: \"" + name + "\" does not exist.");
         }
     }
 }
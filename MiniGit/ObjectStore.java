@@ -0,0 +1,207 @@
+package MiniGit;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import static MiniGit.FileUtilities.*;
+
+/**
+ * The ObjectStore class saves file content addressed purely by the Sha1 hash of that content.
+ * Objects are fanned out into sub directories named after the first two characters of their hash
+ * (ab/cdef...), so identical content tracked under several names is only ever written once,
+ * and checking whether an object exists is a single lookup rather than a directory listing.
+ * Objects are deflated on disk, their Sha1 is always that of the uncompressed content.
+ * Objects that have been consolidated into a pack by the gc command are read from the pack transparently.
+ * */
+public class ObjectStore {
+
+    static final int FAN_OUT_LENGTH = 2;
+    static final int SHA1_LENGTH = 40;
+
+    /**
+     * Returns the File an object with the given Sha1 is (or would be) stored at.
+     * */
+    static File objectFile(File objectsDir, String sha1) {
+        return newFiles(objectsDir, sha1.substring(0, FAN_OUT_LENGTH), sha1.substring(FAN_OUT_LENGTH));
+    }
+
+    /**
+     * Returns true if an object with the given Sha1 has been saved to the store, either loose or packed.
+     * */
+    static boolean contains(File objectsDir, String sha1) {
+        return PackFile.contains(Repository.PACKS_DIR, sha1) || containsLoose(objectsDir, sha1);
+    }
+
+    /**
+     * Returns true if an object with the given Sha1 has been saved to the store as a loose object.
+     * */
+    static boolean containsLoose(File objectsDir, String sha1) {
+        return sha1 != null && sha1.length() == SHA1_LENGTH && WriteBatch.resolve(objectFile(objectsDir, sha1)).isFile();
+    }
+
+    /**
+     * Saves the given content to the store, the write is skipped if the content is already present.
+     * The object is written to a temporary file then renamed with any open WriteBatch, so several threads may save
+     * objects at once, and an object is never seen partly written. Returns the Sha1 Hash of the content.
+     * */
+    static String writeBlob(File objectsDir, byte[] content) {
+        String sha1 = getSha1Hash(content);
+        if (!contains(objectsDir, sha1)) {
+            File f = objectFile(objectsDir, sha1);
+            f.getParentFile().mkdirs();
+            writeCompressed(f, content);
+        }
+        return sha1;
+    }
+
+    /**
+     * Saves the content of a regular file to the store. Returns the Sha1 Hash of the content.
+     * The file is streamed through a fixed size buffer, hashed and deflated to a temporary file in a single pass,
+     * which is then renamed into place with any open WriteBatch once its Sha1 is known.
+     * Memory use does not depend on the size of the file.
+     * */
+    static String writeBlob(File objectsDir, File regularFile) {
+        Path temporary = null;
+        try {
+            temporary = Files.createTempFile(objectsDir.toPath(), "object", TEMPORARY_SUFFIX);
+            MessageDigest md = sha1Digest();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            try (InputStream in = Files.newInputStream(regularFile.toPath());
+                 OutputStream out = new DeflaterOutputStream(Files.newOutputStream(temporary), new Deflater(), BUFFER_SIZE)) {
+                int length;
+                while ((length = in.read(buffer)) > 0) {
+                    md.update(buffer, 0, length);
+                    out.write(buffer, 0, length);
+                }
+            }
+            String sha1 = toHex(md.digest());
+            if (!contains(objectsDir, sha1)) {
+                File f = objectFile(objectsDir, sha1);
+                f.getParentFile().mkdirs();
+                WriteBatch.save(temporary.toFile(), f);
+                temporary = null;
+            }
+            return sha1;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to save " + regularFile.getName() + ": " + e.getMessage());
+        } finally {
+            if (temporary != null) {
+                temporary.toFile().delete();
+            }
+        }
+    }
+
+    /**
+     * Returns the content of the object with the given Sha1.
+     * Throws IllegalArgumentException if no such object exists.
+     * */
+    static byte[] readBlob(File objectsDir, String sha1) {
+        byte[] packed = PackFile.read(Repository.PACKS_DIR, sha1);
+        if (packed != null) {
+            return packed;
+        }
+        if (!containsLoose(objectsDir, sha1)) {
+            throw new IllegalArgumentException("No object with ID " + sha1);
+        }
+        return readCompressed(objectFile(objectsDir, sha1));
+    }
+
+    /**
+     * Writes the object with the given Sha1 as a regular file at the target location,
+     * if there is a file of the same name, it will be overwritten.
+     * The object is inflated straight into the file, so it is never held in memory whole.
+     * Objects are saved deflated, so they cannot be hard linked or copied as they are into the working directory.
+     * */
+    static void copyToRegularFile(File objectsDir, String sha1, File target) {
+        target.getParentFile().mkdirs();
+        if (PackFile.copyToRegularFile(Repository.PACKS_DIR, sha1, target)) {
+            return;
+        }
+        if (!containsLoose(objectsDir, sha1)) {
+            throw new IllegalArgumentException("No object with ID " + sha1);
+        }
+        try {
+            inflateToFile(Files.newInputStream(WriteBatch.resolve(objectFile(objectsDir, sha1)).toPath()), target);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the Sha1 IDs of every loose object in the store.
+     * */
+    static List<String> getLooseIds(File objectsDir) {
+        List<String> ids = new ArrayList<>();
+        File[] fanOut = objectsDir.listFiles(File::isDirectory);
+        if (fanOut != null) {
+            for (File directory : fanOut) {
+                for (String rest : Objects.requireNonNull(directory.list())) {
+                    if (rest.length() == SHA1_LENGTH - FAN_OUT_LENGTH) {
+                        ids.add(directory.getName() + rest);
+                    }
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Deletes the given loose objects, along with any fan out directory left empty.
+     * */
+    static void deleteLooseObjects(File objectsDir, List<String> ids) {
+        for (String sha1 : ids) {
+            File f = objectFile(objectsDir, sha1);
+            f.delete();
+            f.getParentFile().delete(); // only succeeds once the directory is empty
+        }
+    }
+
+    /**
+     * Moves every file saved in the legacy Name(Directory) -> Sha1(File) layout into the store,
+     * content stored under several names is kept once. The legacy directory is deleted afterwards.
+     * */
+    static void migrateLegacyLayout(File legacyDir, File objectsDir) {
+        File[] nameDirectories = legacyDir.listFiles();
+        if (nameDirectories != null) {
+            for (File nameDirectory : nameDirectories) {
+                File[] versions = nameDirectory.listFiles();
+                if (versions == null) {
+                    continue;
+                }
+                for (File version : versions) {
+                    if (version.isFile() && version.getName().length() == SHA1_LENGTH) {
+                        writeBlob(objectsDir, version);
+                    }
+                }
+            }
+        }
+        deleteDirectory(legacyDir);
+    }
+
+    /**
+     * Deflates every file in the given directory and its subdirectories that was written before objects were
+     * saved compressed. Each file is replaced under its own name, so names (and Sha1 IDs) are unchanged.
+     * */
+    static void compressLegacyObjects(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    compressLegacyObjects(f);
+                } else {
+                    writeCompressed(f, readContents(f));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package MiniGit;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The PackFile class reads objects that the gc command has consolidated into a packfile.
+ * A pack is made of two files:
+ * pack-Sha1.pack holds every object deflated, blobs may be held as a Delta against another blob in the same pack.
+ * pack-Sha1.idx holds the Sha1 IDs of those objects sorted, along with their type and offset in the pack,
+ * and is looked up through a memory mapped PackIndex.
+ * Packs are searched before loose objects, as after a gc most objects live in a pack.
+ * */
+public class PackFile {
+
+    /*
+     * Object Types.
+     * */
+    static final byte TYPE_COMMIT = 1;
+    static final byte TYPE_BLOB = 2;
+    static final byte TYPE_TREE = 3;
+
+    /*
+     * Encodings of an object within the pack.
+     * */
+    static final byte WHOLE = 0;
+    static final byte DELTA = 1;
+
+    static final String PACK_SIGNATURE = "MGPK";
+    static final int VERSION = 1;
+    static final String PACK_EXTENSION = ".pack";
+    static final String INDEX_EXTENSION = ".idx";
+
+    /* Type, Encoding, Stored Length and Inflated Length of an entry held whole */
+    private static final int ENTRY_HEADER_LENGTH = 10;
+
+    private static final Map<File, List<PackFile>> openPacks = new ConcurrentHashMap<>();
+
+    private final File pack;
+    private final PackIndex index;
+
+    private PackFile(File pack, File index) {
+        this.pack = pack;
+        this.index = PackIndex.open(index);
+    }
+
+    /**
+     * Returns every pack in the given directory, packs are only read from disk once.
+     * */
+    static List<PackFile> getPacks(File packsDir) {
+        return openPacks.computeIfAbsent(packsDir, PackFile::loadPacks);
+    }
+
+    /**
+     * Forgets the packs read from the given directory, they will be read again on next use.
+     * */
+    static void forgetPacks(File packsDir) {
+        openPacks.remove(packsDir);
+    }
+
+    private static List<PackFile> loadPacks(File packsDir) {
+        List<PackFile> packs = new ArrayList<>();
+        File[] files = packsDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                if (name.endsWith(INDEX_EXTENSION)) {
+                    String baseName = name.substring(0, name.length() - INDEX_EXTENSION.length());
+                    File pack = new File(packsDir, baseName + PACK_EXTENSION);
+                    if (pack.isFile()) {
+                        packs.add(new PackFile(pack, f));
+                    }
+                }
+            }
+        }
+        return packs;
+    }
+
+    /**
+     * Returns true if any pack in the given directory holds an object with the given Sha1.
+     * */
+    static boolean contains(File packsDir, String sha1) {
+        return findPack(packsDir, sha1) != null;
+    }
+
+    /**
+     * Returns the content of the object with the given Sha1 from whichever pack holds it, or null.
+     * */
+    static byte[] read(File packsDir, String sha1) {
+        if (sha1 == null) {
+            return null;
+        }
+        for (PackFile pack : getPacks(packsDir)) {
+            int position = pack.index.find(sha1);
+            if (position >= 0) {
+                return pack.read(sha1, pack.index.getOffset(position));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the object with the given Sha1 as a regular file at the target location, if any pack holds it.
+     * An object held whole is inflated straight from the pack into the file, one held as a Delta is resolved first.
+     * Returns false if no pack holds the object.
+     * */
+    static boolean copyToRegularFile(File packsDir, String sha1, File target) {
+        for (PackFile pack : getPacks(packsDir)) {
+            int position = pack.index.find(sha1);
+            if (position >= 0) {
+                pack.copyToRegularFile(sha1, pack.index.getOffset(position), target);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the Sha1 IDs of every packed object of the given type.
+     * */
+    static List<String> getIds(File packsDir, byte type) {
+        List<String> ids = new ArrayList<>();
+        for (PackFile pack : getPacks(packsDir)) {
+            for (int position = 0; position < pack.index.size(); position++) {
+                if (pack.index.getType(position) == type) {
+                    ids.add(pack.index.getId(position));
+                }
+            }
+        }
+        return ids;
+    }
+
+    private static PackFile findPack(File packsDir, String sha1) {
+        for (PackFile pack : getPacks(packsDir)) {
+            if (pack.index.find(sha1) >= 0) {
+                return pack;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the content of an object held in this pack, resolving Deltas against their base.
+     * */
+    private byte[] read(String sha1, long offset) {
+        try (RandomAccessFile in = new RandomAccessFile(pack, "r")) {
+            in.seek(offset);
+            in.readByte(); // type, already known from the index
+            byte encoding = in.readByte();
+            String baseId = encoding == DELTA ? readSha1(in) : null;
+            byte[] stored = new byte[in.readInt()];
+            int inflatedLength = in.readInt();
+            in.readFully(stored);
+
+            byte[] content = inflate(stored, inflatedLength);
+            if (baseId != null) {
+                content = Delta.apply(read(baseId, index.getOffset(index.find(baseId))), content);
+            }
+            return content;
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read packed object " + sha1 + ": " + e.getMessage());
+        }
+    }
+
+    private void copyToRegularFile(String sha1, long offset, File target) {
+        try (FileChannel channel = FileChannel.open(pack.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_LENGTH);
+            while (header.hasRemaining() && channel.read(header, offset + header.position()) > 0) {
+                // read until the header is complete
+            }
+            if (header.hasRemaining()) {
+                throw new IOException("Packed object is truncated");
+            }
+            if (header.get(1) == DELTA) {
+                FileUtilities.writeByteArray(target, read(sha1, offset));
+                return;
+            }
+            int storedLength = header.getInt(2);
+            channel.position(offset + ENTRY_HEADER_LENGTH);
+            FileUtilities.inflateToFile(new BoundedInputStream(Channels.newInputStream(channel), storedLength), target);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read packed object " + sha1 + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Reads a Sha1 stored as 20 raw bytes and returns it as a hex String.
+     * */
+    static String readSha1(DataInput in) throws IOException {
+        byte[] raw = new byte[PackIndex.SHA1_BYTES];
+        in.readFully(raw);
+        return FileUtilities.toHex(raw);
+    }
+
+    /**
+     * Writes a hex Sha1 String as 20 raw bytes.
+     * */
+    static void writeSha1(DataOutput out, String sha1) throws IOException {
+        for (int i = 0; i < sha1.length(); i += 2) {
+            out.writeByte(Integer.parseInt(sha1.substring(i, i + 2), 16));
+        }
+    }
+
+    /**
+     * Limits a stream to the stored bytes of a single entry, so inflation never reads into the next entry.
+     * */
+    private static class BoundedInputStream extends FilterInputStream {
+        private long remaining;
+
+        BoundedInputStream(InputStream in, long length) {
+            super(in);
+            remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int b = super.read();
+            if (b >= 0) {
+                remaining--;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) {
+                return -1;
+            }
+            int n = super.read(b, off, (int) Math.min(len, remaining));
+            if (n > 0) {
+                remaining -= n;
+            }
+            return n;
+        }
+    }
+
+    private static byte[] inflate(byte[] stored, int inflatedLength) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(stored);
+            byte[] content = new byte[inflatedLength];
+            int read = 0;
+            while (read < inflatedLength && !inflater.finished()) {
+                int n = inflater.inflate(content, read, inflatedLength - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IOException("Packed object is truncated");
+                }
+                read += n;
+            }
+            return content;
+        } catch (DataFormatException e) {
+            throw new IOException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package MiniGit;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * The PackIndex class looks up objects in the index of a pack. The index is memory mapped rather than read onto the
+ * heap, and is laid out in fixed width tables so any entry can be found by position:
+ *
+ * Signature, Version, Object Count,
+ * Fan Out: 256 ints, entry i holds the number of objects whose Sha1 begins with a byte <= i,
+ * Sha1s: the 20 byte Sha1 of every object, sorted,
+ * Types: one byte per object,
+ * Offsets: the 8 byte offset of every object in the pack.
+ *
+ * A lookup binary searches only the run of Sha1s the fan out table selects,
+ * comparing the hex Sha1 against the mapped bytes in place, so no memory is allocated per probe.
+ * */
+public class PackIndex {
+
+    static final String SIGNATURE = "MGIX";
+    static final int VERSION = 2;
+    static final int SHA1_BYTES = 20;
+    static final int FAN_OUT_SIZE = 256;
+    private static final int HEADER_LENGTH = SIGNATURE.length() + 8;
+
+    private final ByteBuffer index;
+    private final int count;
+    private final int sha1Table;
+    private final int typeTable;
+    private final int offsetTable;
+
+    private PackIndex(ByteBuffer index) {
+        this.index = index;
+        count = index.getInt(SIGNATURE.length() + 4);
+        sha1Table = HEADER_LENGTH + FAN_OUT_SIZE * 4;
+        typeTable = sha1Table + count * SHA1_BYTES;
+        offsetTable = typeTable + count;
+    }
+
+    /**
+     * Maps the given index file into memory.
+     * */
+    static PackIndex open(File indexFile) {
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] signature = new byte[SIGNATURE.length()];
+            mapped.get(0, signature);
+            if (!SIGNATURE.equals(new String(signature)) || mapped.getInt(SIGNATURE.length()) != VERSION) {
+                throw new IOException("Not a MiniGit pack index, or written by a different version of MiniGit");
+            }
+            return new PackIndex(mapped);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read pack index " + indexFile.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Returns the number of objects in the pack.
+     * */
+    int size() {
+        return count;
+    }
+
+    /**
+     * Returns the position of the object with the given Sha1 in this index, or -1 if it is not in the pack.
+     * */
+    int find(String sha1) {
+        return find(index, HEADER_LENGTH, sha1Table, sha1);
+    }
+
+    /**
+     * Returns the position of the given Sha1 in a sorted table of 20 byte Sha1s, or -1 if it is not in the table.
+     * The fan out table selecting the run to search is found at fanOutTable, see the layout above.
+     * */
+    static int find(ByteBuffer index, int fanOutTable, int sha1Table, String sha1) {
+        if (!isSha1(sha1)) {
+            return -1;
+        }
+        int firstByte = Character.digit(sha1.charAt(0), 16) << 4 | Character.digit(sha1.charAt(1), 16);
+        int low = firstByte == 0 ? 0 : index.getInt(fanOutTable + (firstByte - 1) * 4);
+        int high = index.getInt(fanOutTable + firstByte * 4) - 1;
+
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            int comparison = compare(index, sha1Table + middle * SHA1_BYTES, sha1);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the given String is a whole Sha1, 40 hex digits, so it can be looked up in a table.
+     * */
+    private static boolean isSha1(String sha1) {
+        if (sha1 == null || sha1.length() != SHA1_BYTES * 2) {
+            return false;
+        }
+        for (int i = 0; i < sha1.length(); i++) {
+            if (Character.digit(sha1.charAt(i), 16) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the Sha1 of the object at the given position.
+     * */
+    String getId(int position) {
+        return getId(index, sha1Table + position * SHA1_BYTES);
+    }
+
+    /**
+     * Returns the 20 byte Sha1 at the given offset as a hex String.
+     * */
+    static String getId(ByteBuffer index, int offset) {
+        byte[] raw = new byte[SHA1_BYTES];
+        index.get(offset, raw);
+        return FileUtilities.toHex(raw);
+    }
+
+    /**
+     * Returns the type of the object at the given position.
+     * */
+    byte getType(int position) {
+        return index.get(typeTable + position);
+    }
+
+    /**
+     * Returns the offset in the pack of the object at the given position.
+     * */
+    long getOffset(int position) {
+        return index.getLong(offsetTable + position * 8);
+    }
+
+    /**
+     * Compares the Sha1 at the given offset with a hex Sha1, byte by byte.
+     * */
+    private static int compare(ByteBuffer index, int base, String sha1) {
+        for (int i = 0; i < SHA1_BYTES; i++) {
+            int stored = index.get(base + i) & 0xff;
+            int wanted = Character.digit(sha1.charAt(2 * i), 16) << 4 | Character.digit(sha1.charAt(2 * i + 1), 16);
+            if (stored != wanted) {
+                return stored - wanted;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Writes an index for the given map<Sha1, Offset>, the types map holds the type of each object.
+     * */
+    static void write(File indexFile, SortedMap<String, Long> offsets, Map<String, Byte> types) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(indexFile.toPath())))) {
+            out.writeBytes(SIGNATURE);
+            out.writeInt(VERSION);
+            out.writeInt(offsets.size());
+            writeSha1Table(out, offsets.keySet());
+            for (String id : offsets.keySet()) {
+                out.writeByte(types.get(id));
+            }
+            for (long offset : offsets.values()) {
+                out.writeLong(offset);
+            }
+        }
+    }
+
+    /**
+     * Writes the fan out table for the given sorted Sha1s, followed by the Sha1s themselves.
+     * */
+    static void writeSha1Table(DataOutput out, Collection<String> sortedIds) throws IOException {
+        int[] fanOut = new int[FAN_OUT_SIZE];
+        for (String id : sortedIds) {
+            fanOut[Integer.parseInt(id.substring(0, 2), 16)]++;
+        }
+        for (int i = 1; i < FAN_OUT_SIZE; i++) {
+            fanOut[i] += fanOut[i - 1];
+        }
+        for (int entry : fanOut) {
+            out.writeInt(entry);
+        }
+        for (String id : sortedIds) {
+            PackFile.writeSha1(out, id);
+        }
+    }
+
+    /**
+     * Rewrites an index written before the fan out table was introduced
+     * (a list of Sha1, Type, Offset entries) in the current layout.
+     * */
+    static void upgradeLegacy(File indexFile) {
+        SortedMap<String, Long> offsets = new TreeMap<>();
+        Map<String, Byte> types = new TreeMap<>();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile.toPath())))) {
+            byte[] signature = new byte[SIGNATURE.length()];
+            in.readFully(signature);
+            if (!SIGNATURE.equals(new String(signature)) || in.readInt() != 1) {
+                return;
+            }
+            int entries = in.readInt();
+            for (int i = 0; i < entries; i++) {
+                String id = PackFile.readSha1(in);
+                types.put(id, in.readByte());
+                offsets.put(id, in.readLong());
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read pack index " + indexFile.getName() + ": " + e.getMessage());
+        }
+
+        File upgraded = new File(indexFile.getPath() + ".tmp");
+        try {
+            write(upgraded, offsets, types);
+            WriteBatch.saveNow(upgraded, indexFile);
+        } catch (IOException | IllegalArgumentException e) {
+            upgraded.delete();
+            throw new IllegalArgumentException("Unable to write pack index " + indexFile.getName() + ": " + e.getMessage());
+        }
+    }
+}
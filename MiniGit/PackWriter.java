@@ -0,0 +1,227 @@
+package MiniGit;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+
+import static MiniGit.FileUtilities.*;
+
+/**
+ * The PackWriter class consolidates every loose commit, blob and tree, along with any existing packs, into a single
+ * new pack (see PackFile). Each older version of a tracked file, or of a directory's Tree, is stored as a Delta
+ * against the next newer version of the same file or directory, so usually only the newest version is held whole.
+ * Loose objects and the old packs are deleted once the new pack has been written.
+ * */
+public class PackWriter {
+
+    static final int MAX_DELTA_DEPTH = 10;
+
+    private final File objectsDir;
+    private final DataOutputStream out;
+    private long offset = 0;
+    private final SortedMap<String, Long> offsets = new TreeMap<>();
+    private final Map<String, Byte> types = new HashMap<>();
+    private final Set<String> trees = new HashSet<>();
+    private final Map<String, Integer> deltaDepths = new HashMap<>();
+    private int deltaCount = 0;
+
+    private PackWriter(File objectsDir, File temporaryPack, int objectCount) throws IOException {
+        this.objectsDir = objectsDir;
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPack.toPath())));
+        out.writeBytes(PackFile.PACK_SIGNATURE);
+        out.writeInt(PackFile.VERSION);
+        out.writeInt(objectCount);
+        offset = PackFile.PACK_SIGNATURE.length() + 8;
+    }
+
+    /**
+     * Packs every commit, blob and tree in the repository into a single new pack,
+     * and writes the CommitGraphFile describing every commit, with reachability bitmaps for the given branch heads,
+     * to the given graph file.
+     * Returns a short summary of the work done for presentation to the user.
+     * */
+    static String repack(File commitsDir, File objectsDir, File packsDir, File graphFile, Collection<String> branchHeads) {
+        List<String> looseCommits = CommitGraph.getLooseCommitIds(commitsDir);
+        List<String> looseObjects = ObjectStore.getLooseIds(objectsDir);
+
+        Map<String, Commit> commits = new HashMap<>();
+        for (String id : CommitGraph.getAllCommitIds(commitsDir)) {
+            commits.put(id, CommitGraph.getCommit(commitsDir, id));
+        }
+        Set<String> objects = new HashSet<>(looseObjects);
+        objects.addAll(PackFile.getIds(packsDir, PackFile.TYPE_BLOB));
+        objects.addAll(PackFile.getIds(packsDir, PackFile.TYPE_TREE));
+
+        // Named so PackFile never loads them, while being written or if gc stops part way.
+        File temporaryPack = new File(packsDir, "pack-tmp" + PackFile.PACK_EXTENSION + TEMPORARY_SUFFIX);
+        File temporaryIndex = new File(packsDir, "pack-tmp" + PackFile.INDEX_EXTENSION + TEMPORARY_SUFFIX);
+        PackWriter writer;
+        try {
+            writer = new PackWriter(objectsDir, temporaryPack, commits.size() + objects.size());
+            writer.writeCommits(commitsDir, commits.keySet());
+            writer.writeObjects(writer.versionsByPath(commits), objects);
+            writer.out.close();
+            PackIndex.write(temporaryIndex, writer.offsets, writer.types);
+        } catch (IOException e) {
+            temporaryPack.delete();
+            temporaryIndex.delete();
+            throw new IllegalArgumentException("Unable to write pack: " + e.getMessage());
+        }
+
+        String packName = "pack-" + sha1(String.join("", writer.offsets.keySet()));
+        try {
+            File pack = new File(packsDir, packName + PackFile.PACK_EXTENSION);
+            File index = new File(packsDir, packName + PackFile.INDEX_EXTENSION);
+            // The pack must be on disk before the loose objects it replaces are deleted.
+            WriteBatch.saveNow(temporaryPack, pack);
+            WriteBatch.saveNow(temporaryIndex, index);
+        } catch (IllegalArgumentException e) {
+            temporaryPack.delete();
+            temporaryIndex.delete();
+            throw new IllegalArgumentException("Unable to write pack: " + e.getMessage());
+        }
+
+        CommitGraphFile.write(graphFile, commits, branchHeads);
+        deleteOldPacks(packsDir, packName);
+        PackFile.forgetPacks(packsDir);
+        deleteFilesIfNotDirectory(commitsDir, looseCommits.toArray(new String[0]));
+        ObjectStore.deleteLooseObjects(objectsDir, looseObjects);
+
+        return "Packed " + commits.size() + " commits and " + objects.size() + " blobs and trees ("
+                + writer.deltaCount + " stored as deltas) into " + packName;
+    }
+
+    /**
+     * Returns a map<Path, Sha1s> of every version of every file and directory tracked across the given commits,
+     * each path's versions are ordered newest first. Directory paths end with a separator.
+     * Every Tree found is remembered, so it can be packed as a Tree.
+     * */
+    private Map<String, Set<String>> versionsByPath(Map<String, Commit> commits) {
+        Map<String, Set<String>> versions = new HashMap<>();
+        for (String id : newestFirst(commits)) {
+            collectVersions(commits.get(id).getTreeId(), "", versions);
+        }
+        return versions;
+    }
+
+    /**
+     * Adds the given Tree, and the files and subdirectories it holds, to the map<Path, Sha1s> of versions.
+     * A Tree already visited is skipped, as everything below it has already been added.
+     * */
+    private void collectVersions(String treeId, String path, Map<String, Set<String>> versions) {
+        if (!trees.add(treeId)) {
+            return;
+        }
+        versions.computeIfAbsent(path + Tree.SEPARATOR, k -> new LinkedHashSet<>()).add(treeId);
+        for (Map.Entry<String, Tree.Entry> entry : Tree.readEntries(objectsDir, treeId).entrySet()) {
+            String entryPath = path + entry.getKey();
+            if (entry.getValue().isTree()) {
+                collectVersions(entry.getValue().id, entryPath + Tree.SEPARATOR, versions);
+            } else {
+                versions.computeIfAbsent(entryPath, k -> new LinkedHashSet<>()).add(entry.getValue().id);
+            }
+        }
+    }
+
+    /**
+     * Returns the given commit IDs ordered so that every commit comes before its parents.
+     * */
+    private static List<String> newestFirst(Map<String, Commit> commits) {
+        Map<String, Integer> generations = CommitGraphFile.generations(commits);
+        List<String> ordered = new ArrayList<>(commits.keySet());
+        ordered.sort(Comparator.comparing(generations::get, Comparator.reverseOrder()));
+        return ordered;
+    }
+
+    private void writeCommits(File commitsDir, Set<String> ids) throws IOException {
+        for (String id : ids) {
+            writeEntry(id, PackFile.TYPE_COMMIT, null, CommitGraph.readCommitBytes(commitsDir, id));
+        }
+    }
+
+    /**
+     * Writes every blob and tree, walking each path's versions from newest to oldest so that each version can be
+     * stored as a Delta against the one after it. An object is only ever written once, and always as a Delta against
+     * an object that has already been written, so Delta chains can never loop.
+     * Objects no commit tracks are written whole.
+     * */
+    private void writeObjects(Map<String, Set<String>> versionsByPath, Set<String> objects) throws IOException {
+        for (Set<String> versions : versionsByPath.values()) {
+            String previous = null;
+            byte[] previousContent = null;
+            for (String sha1 : versions) {
+                if (!objects.contains(sha1)) {
+                    continue;
+                }
+                byte[] content = null;
+                if (!offsets.containsKey(sha1)) {
+                    content = ObjectStore.readBlob(objectsDir, sha1);
+                    if (previous != null && deltaDepths.get(previous) < MAX_DELTA_DEPTH) {
+                        if (previousContent == null) {
+                            previousContent = ObjectStore.readBlob(objectsDir, previous);
+                        }
+                        byte[] delta = Delta.create(previousContent, content);
+                        if (delta.length < content.length / 2) {
+                            writeEntry(sha1, typeOf(sha1), previous, delta);
+                            deltaDepths.put(sha1, deltaDepths.get(previous) + 1);
+                            deltaCount++;
+                        }
+                    }
+                    if (!offsets.containsKey(sha1)) {
+                        writeEntry(sha1, typeOf(sha1), null, content);
+                        deltaDepths.put(sha1, 0);
+                    }
+                }
+                previous = sha1;
+                previousContent = content;
+            }
+        }
+
+        for (String sha1 : objects) {
+            if (!offsets.containsKey(sha1)) {
+                writeEntry(sha1, typeOf(sha1), null, ObjectStore.readBlob(objectsDir, sha1));
+            }
+        }
+    }
+
+    private byte typeOf(String sha1) {
+        return trees.contains(sha1) ? PackFile.TYPE_TREE : PackFile.TYPE_BLOB;
+    }
+
+    /**
+     * Writes a single entry to the pack: Type, Encoding, [Base Sha1], Stored Length, Inflated Length, Data.
+     * */
+    private void writeEntry(String sha1, byte type, String base, byte[] content) throws IOException {
+        ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+        try (DeflaterOutputStream deflater = new DeflaterOutputStream(deflated)) {
+            deflater.write(content);
+        }
+
+        offsets.put(sha1, offset);
+        types.put(sha1, type);
+        out.writeByte(type);
+        out.writeByte(base == null ? PackFile.WHOLE : PackFile.DELTA);
+        if (base != null) {
+            PackFile.writeSha1(out, base);
+        }
+        out.writeInt(deflated.size());
+        out.writeInt(content.length);
+        deflated.writeTo(out);
+        offset += 10 + (base == null ? 0 : 20) + deflated.size();
+    }
+
+    /**
+     * Deletes every pack in the given directory except the named one.
+     * */
+    private static void deleteOldPacks(File packsDir, String keep) {
+        File[] files = packsDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                if (!f.getName().startsWith(keep + ".")) {
+                    f.delete();
+                }
+            }
+        }
+    }
+}
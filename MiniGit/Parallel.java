@@ -0,0 +1,40 @@
+package MiniGit;
+
+import java.util.Collection;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * The Parallel class runs independent pieces of work, such as hashing or writing files, on every available core.
+ * At most one piece of work runs per core at a time, so only that many files are ever held in memory at once.
+ * */
+public class Parallel {
+
+    static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Performs the given action for every item, in no particular order, and returns once all have completed.
+     * The first exception thrown by an action is rethrown; IllegalArgumentExceptions are rethrown unchanged.
+     * */
+    static <T> void forEach(Collection<T> items, Consumer<T> action) {
+        if (items.size() < 2 || PARALLELISM < 2) {
+            items.forEach(action);
+            return;
+        }
+        ForkJoinPool pool = new ForkJoinPool(PARALLELISM);
+        try {
+            pool.submit(() -> items.parallelStream().forEach(action)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalArgumentException("Interrupted");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalArgumentException(e.getCause().getMessage());
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
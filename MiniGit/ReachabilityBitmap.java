@@ -0,0 +1,104 @@
+package MiniGit;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * A ReachabilityBitmap is the set of Commits reachable from a Commit, one bit per Commit, as saved in the
+ * CommitGraphFile. Bits are numbered oldest Commit first, so the ancestors of a Commit mostly form long runs of set
+ * bits, which are saved run length encoded as groups of 64 bit words:
+ *
+ * Fill: the number of words in a run of all clear or all set words, with the top bit set for a run of set words,
+ * Literal Count: the number of words after the run that are saved as they are, followed by those words.
+ *
+ * Bitmaps are combined in memory as BitSets, where and / andNot work a word at a time.
+ * */
+public class ReachabilityBitmap {
+
+    private static final int FILL_SET = 0x80000000;
+
+    /**
+     * Writes the given bitmap to the given output.
+     * */
+    static void write(DataOutput out, BitSet bitmap) throws IOException {
+        long[] words = bitmap.toLongArray();
+        int i = 0;
+        while (i < words.length) {
+            int runStart = i;
+            long fill = words[i];
+            if (fill == 0 || fill == -1) {
+                while (i < words.length && words[i] == fill) {
+                    i++;
+                }
+            }
+            int runLength = i - runStart;
+            int literalStart = i;
+            while (i < words.length && words[i] != 0 && words[i] != -1) {
+                i++;
+            }
+            out.writeInt(runLength | (runLength > 0 && fill == -1 ? FILL_SET : 0));
+            out.writeInt(i - literalStart);
+            for (int j = literalStart; j < i; j++) {
+                out.writeLong(words[j]);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes write() takes to save the given bitmap.
+     * */
+    static int encodedLength(BitSet bitmap) {
+        long[] words = bitmap.toLongArray();
+        int length = 0;
+        int i = 0;
+        while (i < words.length) {
+            long fill = words[i];
+            if (fill == 0 || fill == -1) {
+                while (i < words.length && words[i] == fill) {
+                    i++;
+                }
+            }
+            length += 8;
+            while (i < words.length && words[i] != 0 && words[i] != -1) {
+                length += 8;
+                i++;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Reads the bitmap of the given encoded length saved at the given offset.
+     * */
+    static BitSet read(ByteBuffer buffer, int offset, int length) {
+        long[] words = new long[16];
+        int wordCount = 0;
+        int end = offset + length;
+        while (offset < end) {
+            int fill = buffer.getInt(offset);
+            int literals = buffer.getInt(offset + 4);
+            offset += 8;
+            int runLength = fill & ~FILL_SET;
+            long runWord = (fill & FILL_SET) != 0 ? -1 : 0;
+            words = ensureCapacity(words, wordCount + runLength + literals);
+            for (int i = 0; i < runLength; i++) {
+                words[wordCount++] = runWord;
+            }
+            for (int i = 0; i < literals; i++) {
+                words[wordCount++] = buffer.getLong(offset);
+                offset += 8;
+            }
+        }
+        return BitSet.valueOf(Arrays.copyOf(words, wordCount));
+    }
+
+    private static long[] ensureCapacity(long[] words, int needed) {
+        if (needed <= words.length) {
+            return words;
+        }
+        return Arrays.copyOf(words, Math.max(needed, words.length * 2));
+    }
+}
@@ -0,0 +1,286 @@
+package MiniGit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import static MiniGit.FileUtilities.*;
+
+/**
+ * The Refs class stores the Commit ID each branch points to. Each branch is a small text file in the heads
+ * directory, named after the branch and holding the Commit ID, so creating or moving a branch only ever writes that
+ * one file. The gc command moves every branch into the packed-refs file, one "Sha1 Name" per line, so thousands of
+ * branches are not thousands of files. A branch file, when there is one, takes the place of its packed-refs entry.
+ *
+ * A branch file, or the packed-refs file, is never written in place: the new content is written to a lock file
+ * beside it, Name.lock, which is then renamed over it. The lock file is created only if it does not exist,
+ * so two processes can never update the same file at once, and a reader sees either the old or the new content.
+ * A branch can also be moved only if it still points where the caller expects, so a process that has been beaten
+ * to a branch by another is told so rather than silently undoing the other's update. The branch is read and compared
+ * while holding its lock file, which every update of that branch must create first, so the check and the rename are
+ * atomic on their own. A branch named "a" and one named "a/b" cannot both exist, as "a" would have to be both a file
+ * and a directory. That check spans two lock files, so it relies on every command that creates a branch holding the
+ * RepositoryLock, as every writing command does.
+ * */
+public class Refs {
+
+    static final String HEADS_DIRECTORY = "heads";
+    static final String PACKED_REFS = "packed-refs";
+    static final String LOCK_SUFFIX = ".lock";
+
+    /**
+     * Returns the Commit ID the given branch points to, or null if there is no such branch.
+     * */
+    static String read(File refsDir, String name) {
+        File ref = looseRef(refsDir, name);
+        if (ref.isFile()) {
+            String id = readContentsAsString(ref).trim();
+            if (!id.isEmpty()) {
+                return id;
+            }
+        }
+        return readPacked(refsDir).get(name);
+    }
+
+    /**
+     * Returns true if there is a branch with the given name.
+     * */
+    static boolean exists(File refsDir, String name) {
+        return read(refsDir, name) != null;
+    }
+
+    /**
+     * Returns a map<Name, Commit ID> of every branch, sorted by name.
+     * */
+    static SortedMap<String, String> readAll(File refsDir) {
+        SortedMap<String, String> refs = readPacked(refsDir);
+        File heads = new File(refsDir, HEADS_DIRECTORY);
+        Deque<File> directories = new ArrayDeque<>(List.of(heads));
+        while (!directories.isEmpty()) {
+            File[] files = directories.pop().listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File f : files) {
+                if (f.isDirectory()) {
+                    directories.push(f);
+                } else if (!f.getName().endsWith(LOCK_SUFFIX)) {
+                    String id = readContentsAsString(f).trim();
+                    if (!id.isEmpty()) {
+                        refs.put(heads.toPath().relativize(f.toPath()).toString().replace(File.separatorChar, '/'), id);
+                    }
+                }
+            }
+        }
+        return refs;
+    }
+
+    /**
+     * Points the given branch at the given Commit ID, creating the branch if it does not exist.
+     * Throws IllegalArgumentException if the branch is locked by another process, or cannot be written.
+     * */
+    static void update(File refsDir, String name, String commitID) {
+        File ref = looseRef(refsDir, name);
+        ref.getParentFile().mkdirs();
+        writeLocked(ref, commitID + "\n");
+    }
+
+    /**
+     * Points the given branch at the given Commit ID, only if it still points at the expected Commit ID.
+     * An expected Commit ID of null means the branch must not exist yet.
+     * Throws IllegalArgumentException, leaving the branch as it is, if the branch points elsewhere or is locked.
+     * */
+    static void update(File refsDir, String name, String expectedID, String commitID) {
+        File ref = looseRef(refsDir, name);
+        ref.getParentFile().mkdirs();
+        File lock = lock(ref);
+        String current;
+        String clash;
+        try {
+            current = read(refsDir, name);
+            clash = expectedID == null ? findClash(refsDir, name) : null;
+        } catch (RuntimeException e) {
+            lock.delete();
+            throw e;
+        }
+        if (clash != null) {
+            lock.delete();
+            throw new IllegalArgumentException(clashMessage(name, clash));
+        }
+        if (!Objects.equals(current, expectedID)) {
+            lock.delete();
+            if (expectedID == null) {
+                throw new IllegalArgumentException("Branch " + name + " already exists.");
+            }
+            throw new IllegalArgumentException(current == null
+                    ? "Branch " + name + " has been deleted by another MiniGit process."
+                    : "Branch " + name + " has been moved by another MiniGit process, now at " + current + ".");
+        }
+        replace(lock, ref, commitID + "\n");
+    }
+
+    /**
+     * Deletes the given branch, from its branch file and the packed-refs file.
+     * Returns false if there is no such branch.
+     * */
+    static boolean delete(File refsDir, String name) {
+        File ref = looseRef(refsDir, name);
+        ref.getParentFile().mkdirs();
+        File lock = lock(ref);
+        try {
+            boolean deleted = ref.delete();
+            SortedMap<String, String> packed = readPacked(refsDir);
+            if (packed.remove(name) != null) {
+                writePacked(refsDir, packed);
+                deleted = true;
+            }
+            return deleted;
+        } finally {
+            lock.delete();
+            deleteEmptyDirectories(refsDir, ref.getParentFile());
+        }
+    }
+
+    /**
+     * Moves every branch file into the packed-refs file. A branch moved by another process while its file is being
+     * packed keeps its file, which takes the place of the packed entry.
+     * */
+    static void pack(File refsDir) {
+        SortedMap<String, String> refs = readAll(refsDir);
+        if (refs.isEmpty()) {
+            return;
+        }
+        writePacked(refsDir, refs);
+        for (Map.Entry<String, String> entry : refs.entrySet()) {
+            File ref = looseRef(refsDir, entry.getKey());
+            if (!ref.isFile()) {
+                continue;
+            }
+            File lock = lock(ref);
+            try {
+                if (readContentsAsString(ref).trim().equals(entry.getValue())) {
+                    ref.delete();
+                }
+            } finally {
+                lock.delete();
+                deleteEmptyDirectories(refsDir, ref.getParentFile());
+            }
+        }
+    }
+
+    /**
+     * Returns null if the given name can be used for a branch, otherwise the reason it cannot.
+     * */
+    static String checkName(String name) {
+        if (name.isEmpty() || name.startsWith("/") || name.endsWith("/") || name.contains("//")) {
+            return "A branch name cannot be empty, or begin, end or be separated by an empty name.";
+        }
+        if (name.contains("..") || name.endsWith(LOCK_SUFFIX) || name.startsWith(".") || name.contains("/.")) {
+            return "A branch name cannot contain \"..\", begin with \".\" or end with \"" + LOCK_SUFFIX + "\".";
+        }
+        for (char c : name.toCharArray()) {
+            if (Character.isWhitespace(c) || Character.isISOControl(c) || c == '\\') {
+                return "A branch name cannot contain spaces, control characters or '\\'.";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the name of the branch that prevents a branch with the given name from being created, as one of the
+     * two names is a directory of the other, or null if there is none.
+     * */
+    static String findClash(File refsDir, String name) {
+        for (String existing : readAll(refsDir).keySet()) {
+            if (existing.startsWith(name + "/") || name.startsWith(existing + "/")) {
+                return existing;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the message explaining that the given branch cannot be created while the given clashing branch exists.
+     * */
+    static String clashMessage(String name, String clash) {
+        return "A branch cannot be named " + name + " while a branch named " + clash + " exists.";
+    }
+
+    /**
+     * Deletes the given directory, and each parent left empty in turn, up to the heads directory, so a branch named
+     * after a directory that once held other branches can be created again.
+     * */
+    private static void deleteEmptyDirectories(File refsDir, File directory) {
+        File heads = new File(refsDir, HEADS_DIRECTORY).getAbsoluteFile();
+        File current = directory.getAbsoluteFile();
+        while (!current.equals(heads) && current.delete()) {
+            current = current.getParentFile();
+        }
+    }
+
+    private static File looseRef(File refsDir, String name) {
+        return new File(new File(refsDir, HEADS_DIRECTORY), name);
+    }
+
+    private static SortedMap<String, String> readPacked(File refsDir) {
+        SortedMap<String, String> refs = new TreeMap<>();
+        File packed = new File(refsDir, PACKED_REFS);
+        if (packed.isFile()) {
+            for (String line : readContentsAsString(packed).split("\n")) {
+                int separator = line.indexOf(' ');
+                if (separator > 0) {
+                    refs.put(line.substring(separator + 1), line.substring(0, separator));
+                }
+            }
+        }
+        return refs;
+    }
+
+    private static void writePacked(File refsDir, SortedMap<String, String> refs) {
+        StringBuilder packed = new StringBuilder();
+        refs.forEach((name, id) -> packed.append(id).append(' ').append(name).append('\n'));
+        writeLocked(new File(refsDir, PACKED_REFS), packed.toString());
+    }
+
+    /**
+     * Replaces the content of the given file through its lock file, see above.
+     * */
+    private static void writeLocked(File target, String content) {
+        replace(lock(target), target, content);
+    }
+
+    /**
+     * Writes the given content to the lock file already taken, then renames it over the given file,
+     * flushing both to disk, along with any objects the branch may refer to, see WriteBatch.saveNow().
+     * The lock file is released either way: once renamed it is the file, and on failure it is deleted, so the
+     * caller must not delete it, as the name may by then be another process's lock.
+     * */
+    private static void replace(File lock, File target, String content) {
+        try {
+            Files.write(lock.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            lock.delete();
+            throw new IllegalArgumentException("Unable to update " + target.getName() + ": " + e.getMessage());
+        }
+        WriteBatch.saveNow(lock, target);
+    }
+
+    /**
+     * Creates the lock file of the given file, and returns it.
+     * Throws IllegalArgumentException if it already exists, as another process is updating the file.
+     * */
+    private static File lock(File target) {
+        File lock = new File(target.getPath() + LOCK_SUFFIX);
+        try {
+            Files.createFile(lock.toPath());
+            return lock;
+        } catch (FileAlreadyExistsException e) {
+            throw new IllegalArgumentException("Unable to update " + target.getName() + ", it is being updated by"
+                    + " another MiniGit process. If no other process is running, delete " + lock.getPath());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to lock " + target.getName() + ": " + e.getMessage());
+        }
+    }
+}
@@ -1,8 +1,12 @@
 package MiniGit;
 
-import java.io.File;
+import java.io.*;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 import static MiniGit.FileUtilities.*;
 
@@ -13,6 +17,10 @@ public class Repository {
     * CWD
     */
     static final File CURRENT_WORKING_DIRECTORY = new File(System.getProperty("user.dir")).getParentFile();
+    /*
+    * The directory MiniGit is run from, it is never tracked.
+    * */
+    static final File PROGRAM_DIRECTORY = new File(System.getProperty("user.dir")).getAbsoluteFile();
     /*
      .MiniGit DIRECTORY
      */
@@ -22,10 +30,20 @@ public class Repository {
     * Inside .MiniGit Directory
     * */
     static final File COMMITS_DIR = Paths.get(MiniGitDir.getPath(), "Commits").toFile();
-    static final File STORED_FILE_DIR = Paths.get(MiniGitDir.getPath(),"Blobs").toFile();
+    static final File OBJECTS_DIR = Paths.get(MiniGitDir.getPath(),"Objects").toFile();
     static final File STATE_DIR = Paths.get(MiniGitDir.getPath(),"State").toFile();
     static final File STAGING_AREA_DIR = Paths.get(MiniGitDir.getPath(),"StagingArea").toFile();
-    static final File[] subDirectories = {COMMITS_DIR, STORED_FILE_DIR, STATE_DIR, STAGING_AREA_DIR};
+    static final File PACKS_DIR = Paths.get(MiniGitDir.getPath(),"Packs").toFile();
+    static final File REFS_DIR = Paths.get(MiniGitDir.getPath(),"Refs").toFile();
+    static final File STAT_CACHE = Paths.get(MiniGitDir.getPath(),"StatCache").toFile();
+    static final File COMMIT_GRAPH = Paths.get(MiniGitDir.getPath(),"CommitGraph").toFile();
+    static final File MESSAGE_INDEX = Paths.get(MiniGitDir.getPath(),"MessageIndex").toFile();
+    static final File REPOSITORY_LOCK = Paths.get(MiniGitDir.getPath(),"Lock").toFile();
+    static final File[] subDirectories = {COMMITS_DIR, OBJECTS_DIR, STATE_DIR, STAGING_AREA_DIR, PACKS_DIR, REFS_DIR};
+    /*
+    * Blobs were saved in Name(Directory) -> Sha1(File) format here before the ObjectStore was introduced.
+    * */
+    static final File LEGACY_BLOBS_DIR = Paths.get(MiniGitDir.getPath(),"Blobs").toFile();
     static final String MINI_GIT_STATE = "MiniGitState";
     static final String DEFAULT_BRANCH = "master";
 
@@ -41,6 +59,7 @@ public class Repository {
         } else {
             createRepositoryDirectories();
             createStateFiles();
+            MessageIndex.create(MESSAGE_INDEX);
             initialCommit();
         }
     }
@@ -54,6 +73,7 @@ public class Repository {
             for (File file : subDirectories) {
                 file.mkdir();
             }
+            RepositoryFormat.writeVersion(MiniGitDir, RepositoryFormat.CURRENT_VERSION);
         } catch (SecurityException e) {
             System.out.println("Security Settings Prevented Creation of MiniGit Directory");
         }
@@ -61,7 +81,7 @@ public class Repository {
 
     /**Creates MiniGitState() object which is always saved to record the programs current state*/
     private static MiniGitState createStateFiles() {
-        return new MiniGitState(null, STATE_DIR.getPath(), MINI_GIT_STATE, DEFAULT_BRANCH);
+        return new MiniGitState(STATE_DIR.getPath(), MINI_GIT_STATE, DEFAULT_BRANCH);
     }
 
     /**
@@ -70,9 +90,29 @@ public class Repository {
     static Boolean miniGitExists() {
         return MiniGitDir.exists() &&
                 COMMITS_DIR.exists() &&
-                STORED_FILE_DIR.exists() &&
+                OBJECTS_DIR.exists() &&
                 STATE_DIR.exists() &&
-                STAGING_AREA_DIR.exists();
+                STAGING_AREA_DIR.exists() &&
+                PACKS_DIR.exists();
+    }
+
+
+    /**
+     * Takes the RepositoryLock, so that no other process changes the repository until this one ends.
+     * */
+    static void lockForWriting() {
+        RepositoryLock.acquire(REPOSITORY_LOCK);
+    }
+
+    /**
+     * Upgrades a repository created by an older version of MiniGit to the current on-disk format.
+     * Does nothing if no repository exists in the current directory.
+     * Throws IllegalArgumentException if the repository cannot be upgraded.
+     * */
+    static void upgradeFormat() {
+        if (MiniGitDir.exists()) {
+            RepositoryFormat.upgrade(MiniGitDir);
+        }
     }
 
 
@@ -99,14 +139,17 @@ public class Repository {
      *  */
     static Commit createCommit(String parentSha1, String branch, String message, Map<String, String> stagedFiles, Set<String> unstagedFiles) {
         Commit parent = getHeadCommit();
-        return CommitGraph.makeNewCommit(parent, parentSha1, branch, message, stagedFiles, unstagedFiles);
+        return CommitGraph.makeNewCommit(parent, parentSha1, branch, message, stagedFiles, unstagedFiles, OBJECTS_DIR);
     }
 
     /**Saves Commit Object to REPOSITORY.COMMITS_DIR */
     static String writeCommit(Commit commit) {
-        String commitID = saveObject(commit, COMMITS_DIR);
+        String commitID = saveContent(CommitCodec.encode(commit), COMMITS_DIR);
+        // The Commit is on disk before the index records it, and recorded before any branch points at it.
+        WriteBatch.flush();
+        MessageIndex.append(MESSAGE_INDEX, commitID, commit);
         MiniGitState state = getMiniGitState();
-        state.setNewHead(commitID);
+        state.setNewHead(commit.getFirstParentSha1(), commitID);
         return commitID;
     }
 
@@ -118,7 +161,6 @@ public class Repository {
         MiniGitState state = getMiniGitState();
         Commit c = createCommit(state.getHead(), state.getBranch(), message, stagedFiles, state.getUnstagedFiles());
         String commitSha1 = writeCommit(c);
-        StoredFiles.copyStoredFiles(getStagedFile(), STORED_FILE_DIR);
         emptyStagingArea();
         return commitSha1;
     }
@@ -130,45 +172,62 @@ public class Repository {
 
 
     /**
-     * Stages a file for addition to the next Commit.
+     * Stages a file for addition to the next Commit, a directory stages every file within it.
      * */
     static void add(String fileName) {
-        add(new File(CURRENT_WORKING_DIRECTORY, fileName));
+        addMultiple(fileName);
     }
 
     /**
      * Stages multiple files for addition to the next Commit.
+     * Files are hashed and saved to the ObjectStore in parallel, the staging area is written once all are saved.
      * */
     static void addMultiple(String... fileName){
+        WorkingTree workingTree = getWorkingTree();
+        Set<String> paths = new TreeSet<>();
         for (String name: fileName){
-            add(new File(CURRENT_WORKING_DIRECTORY, name));
+            paths.addAll(workingTree.listFiles(new File(CURRENT_WORKING_DIRECTORY, name)));
         }
+        Map<String, String> staged = StoredFiles.getStoredFilesAsMap(STAGING_AREA_DIR);
+        Map<String, String> toStage = new ConcurrentHashMap<>();
+        Parallel.forEach(paths, path -> add(workingTree, path, staged, toStage));
+        stageFiles(toStage);
+        workingTree.saveStatCache();
     }
 
     /**
      * Determines which Add() method is applicable to the given arguments, then calls that method.
      * */
     public static void addSwitch(String[] args, int length){
-        try {
-            if (length > 2) {
-                addMultiple(args);
-            } else if (length == 1) {
-                add(args[0]);
-            }
-        } catch (IllegalArgumentException e){
-            System.out.println(e.getMessage());
-            System.exit(0);
+        if (length > 1) {
+            addMultiple(args);
+        } else if (length == 1) {
+            add(args[0]);
         }
     }
 
 
     /**
-     * Stages a file if shouldStage() method returns true.
-     * */
-    private static void add(File f){
-        if (f.exists() && shouldStage(f)) {
-                stageFile(f);
+     * Adds the file at the given path to the map<Path, Sha1> of files to stage,
+     * unless it is already staged with the same content in the given map<Path, Sha1> of staged files.
+     * The content is saved to the ObjectStore straight away, unless identical content is already present.
+     * The file is only read if the StatCache shows it has changed, in which case it is hashed as it is saved.
+     * */
+    private static void add(WorkingTree workingTree, String path, Map<String, String> staged, Map<String, String> toStage){
+        File f = new File(CURRENT_WORKING_DIRECTORY, path);
+        if (f.isFile()) {
+            boolean[] saved = {false};
+            String sha1 = workingTree.sha1(path, file -> {
+                saved[0] = true;
+                return ObjectStore.writeBlob(OBJECTS_DIR, file);
+            });
+            if (!sha1.equals(staged.get(path))) {
+                if (!saved[0] && !ObjectStore.contains(OBJECTS_DIR, sha1)) {
+                    sha1 = ObjectStore.writeBlob(OBJECTS_DIR, f);
+                }
+                toStage.put(path, sha1);
             }
+        }
     }
 
 
@@ -182,9 +241,10 @@ public class Repository {
      * however will be available in historic Commits.
      * */
     public static void rm(String fileName){
-        deleteIfExists(CURRENT_WORKING_DIRECTORY, fileName);
-        deleteIfExists(STAGING_AREA_DIR, fileName);
-        getMiniGitState().stageForRemoval(fileName);
+        String path = fileName.replace(File.separator, Tree.SEPARATOR);
+        getWorkingTree().deleteFiles(List.of(path));
+        StoredFiles.unstageFile(STAGING_AREA_DIR, path);
+        getMiniGitState().stageForRemoval(path);
     }
 
 
@@ -193,21 +253,84 @@ public class Repository {
      * */
 
 
+    /**
+     * Reads the log options, [-n count] [--skip count] [first..second], and prints the log they describe.
+     * */
+    static void logSwitch(String[] args, int length){
+        int skip = 0;
+        int limit = -1;
+        String range = null;
+        try {
+            for (int i = 0; i < length; i++) {
+                if (args[i].equals("-n")) {
+                    limit = Integer.parseUnsignedInt(args[++i]);
+                } else if (args[i].equals("--skip")) {
+                    skip = Integer.parseUnsignedInt(args[++i]);
+                } else if (range == null && args[i].contains("..")) {
+                    range = args[i];
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.out.println("Invalid Arguments");
+            return;
+        }
+
+        if (range == null) {
+            log(skip, limit);
+        } else {
+            log(range, skip, limit);
+        }
+    }
+
     /**
      * Prints a log for all Commits in the current Commits history as per its branch.
-     * Log is printed in order with the newest Commits First.
+     * Log is printed in order with the newest Commits First, after skipping the first 'skip' Commits,
+     * and stops after 'limit' Commits if limit is not negative. Only the Commits printed or skipped are read.
      * */
-    static void log(){
+    static void log(int skip, int limit){
         MiniGitState state = getMiniGitState();
-        LinkedHashMap<String, Commit> map = CommitGraph.getCommitHistory(state.getHead(), getHeadCommit(), COMMITS_DIR);
-        Log.createLog(map).forEach(System.out::println);
+        printLog(CommitGraph.getCommitHistory(state.getHead(), COMMITS_DIR), skip, limit);
     }
 
     /**
-     * Prints log for all Commits on all branches, this log is printed in no guaranteed order.
+     * Prints a log of the Commits reachable from the second branch or Commit of the range "first..second",
+     * but not from the first, newest first. Both parents of merge Commits are followed.
+     * */
+    static void log(String range, int skip, int limit){
+        int separator = range.indexOf("..");
+        String excluded = resolveCommitID(range.substring(0, separator));
+        String included = resolveCommitID(range.substring(separator + 2));
+        if (excluded == null || included == null) {
+            return;
+        }
+        List<String> ids = getAncestryIndex().reachableOnlyFrom(included, List.of(excluded));
+        printLog(ids.stream().map(id -> Map.entry(id, getCommit(id))).iterator(), skip, limit);
+    }
+
+    /**
+     * Prints the log of the given Commits through a buffer, see Log.writeLog().
+     * */
+    private static void printLog(Iterator<Map.Entry<String, Commit>> commits, int skip, int limit){
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE);
+        try {
+            Log.writeLog(commits, skip, limit, out);
+        } catch (IOException e) {
+            System.out.println("Unable to print log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Prints log for all Commits on all branches, newest first, through a buffer, see Log.writeGlobalLog().
      * */
     static void globalLog(){
-        Log.createGlobalLog(COMMITS_DIR).forEach(System.out::println);
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out), BUFFER_SIZE);
+        try {
+            Log.writeGlobalLog(COMMITS_DIR, COMMIT_GRAPH, out);
+        } catch (IOException e) {
+            System.out.println("Unable to print log: " + e.getMessage());
+        }
     }
 
 
@@ -217,10 +340,61 @@ public class Repository {
 
 
     /**
-     * Searches for Commit files by 'message'
-     * */
-    static void find(String message){
-        ArrayList<String> list = CommitGraph.searchByMessage(message, COMMITS_DIR);
+     * Reads the find options, [--contains | --regex] text [--branch name], and prints the matching Commit IDs.
+     * By default only messages equal to the text match, --contains matches messages containing it,
+     * and --regex matches messages containing a match of it as a regular expression.
+     * */
+    static void findSwitch(String[] args, int length){
+        String mode = null;
+        String text = null;
+        String branch = null;
+        try {
+            for (int i = 0; i < length; i++) {
+                if (mode == null && text == null && (args[i].equals("--contains") || args[i].equals("--regex"))) {
+                    mode = args[i];
+                } else if (args[i].equals("--branch")) {
+                    branch = args[++i];
+                } else if (text == null) {
+                    text = args[i];
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            text = null;
+        }
+        if (text == null) {
+            System.out.println("Invalid Arguments");
+            return;
+        }
+
+        Predicate<String> matches;
+        if ("--contains".equals(mode)) {
+            String contained = text;
+            matches = message -> message.contains(contained);
+        } else if ("--regex".equals(mode)) {
+            try {
+                Pattern pattern = Pattern.compile(text);
+                matches = message -> pattern.matcher(message).find();
+            } catch (PatternSyntaxException e) {
+                System.out.println("Invalid regular expression: " + e.getDescription());
+                return;
+            }
+        } else {
+            matches = text::equals;
+        }
+        find(matches, branch);
+    }
+
+    /**
+     * Prints the ID of every Commit whose message is accepted by the given test, newest first,
+     * if branch is not null only Commits made on that branch are printed.
+     * The messages are searched in the MessageIndex, no Commit is read. A missing or damaged index is only built again
+     * if no other process holds the RepositoryLock, so find never waits for a writer.
+     * */
+    static void find(Predicate<String> matches, String branch){
+        boolean canWrite = RepositoryLock.tryAcquire(REPOSITORY_LOCK);
+        List<String> list = MessageIndex.search(MESSAGE_INDEX, COMMITS_DIR, matches, branch, canWrite);
         list.forEach(System.out::println);
     }
 
@@ -237,21 +411,56 @@ public class Repository {
         MiniGitState state = getMiniGitState();
 
         Set<String> branches = state.getAllBranchNames();
-        Set<String> removedFiles = state.getUnstagedFiles();
-        Set<String> stagedFiles = Set.of(getStagedFileNames());
+        Set<String> removedFiles = new TreeSet<>(state.getUnstagedFiles());
+        Map<String, String> stagedFiles = new TreeMap<>(StoredFiles.getStoredFilesAsMap(STAGING_AREA_DIR));
+        Commit head = getCommit(state.getHead());
+        assert head != null;
+        WorkingTree workingTree = getWorkingTree().compareWith(head.getTreeId());
+        workingTree.saveStatCache();
+
+        // Compared with the head commit, then overlaid with the changes already staged.
+        SortedSet<String> notStaged = new TreeSet<>();
+        workingTree.getModifiedFiles().keySet().forEach(path -> notStaged.add(path + " (modified)"));
+        workingTree.getDeletedFiles().forEach(path -> notStaged.add(path + " (deleted)"));
+        SortedSet<String> untracked = new TreeSet<>(workingTree.getUntrackedFiles());
+        for (Map.Entry<String, String> staged : stagedFiles.entrySet()) {
+            String path = staged.getKey();
+            notStaged.remove(path + " (modified)");
+            untracked.remove(path);
+            String workingSha1 = workingTree.getSha1(path);
+            if (workingSha1 == null) {
+                notStaged.add(path + " (deleted)");
+            } else if (!workingSha1.equals(staged.getValue())) {
+                notStaged.add(path + " (modified)");
+            }
+        }
+        for (String path : removedFiles) {
+            notStaged.remove(path + " (deleted)");
+            if (notStaged.remove(path + " (modified)") || workingTree.getSha1(path) != null) {
+                untracked.add(path);
+            }
+        }
 
         System.out.println("=== Branches ===");
         branches.forEach(System.out::println);
         System.out.println("");
 
         System.out.println("=== Staged Files ===");
-        stagedFiles.forEach(System.out::println);
+        stagedFiles.keySet().forEach(System.out::println);
         System.out.println("");
 
         System.out.println("=== Removed Files ===");
         removedFiles.forEach(System.out::println);
         System.out.println("");
 
+        System.out.println("=== Modifications Not Staged For Commit ===");
+        notStaged.forEach(System.out::println);
+        System.out.println("");
+
+        System.out.println("=== Untracked Files ===");
+        untracked.forEach(System.out::println);
+        System.out.println("");
+
     }
 
 
@@ -282,14 +491,14 @@ public class Repository {
             return;
         }
 
-        String sha1 = commit.lookUpTrackedFile(fileName);
+        String sha1 = commit.lookUpTrackedFile(fileName.replace(File.separator, Tree.SEPARATOR));
         if (sha1 == null){
             System.out.println("File not found in specified Commit");
+            return;
         }
 
-        File sha1File = newFiles(STORED_FILE_DIR, fileName, sha1);
-        if (sha1File.exists()){
-            FileUtilities.copy(sha1File, new File(CURRENT_WORKING_DIRECTORY, fileName));
+        if (ObjectStore.contains(OBJECTS_DIR, sha1)){
+            ObjectStore.copyToRegularFile(OBJECTS_DIR, sha1, new File(CURRENT_WORKING_DIRECTORY, fileName));
         } else {
             System.out.println("File as found in Commit does not exist in StoredFiles Directory");
         }
@@ -300,6 +509,7 @@ public class Repository {
      * if there is a file of the same name, it will be overwritten.
      * The staging area is cleared. Any file tracked in the previous commit,
      * but not tracked in the new head commit will be deleted.
+     * Only files that differ between the two commits are written or deleted (see switchCommits()).
      * */
     static void checkoutBranch(String name) {
         MiniGitState state = getMiniGitState();
@@ -312,17 +522,15 @@ public class Repository {
             return;
         }
 
-        // If we switch to a valid branch
-        if (state.setBranchAsHead(name)) {
-            Commit destinationCommit = getCommit(state.getHead()); // get the commit
-            assert destinationCommit != null;
-            Map<String, String> newTrackedFiles = destinationCommit.getTrackedFiles(); // get the files it tracks
-
-            // Delete old files
-            deleteFilesIfNotDirectory(CURRENT_WORKING_DIRECTORY, currentlyTrackedFiles.toArray(new String[0]));
-
-            // Copy in new Files
-            StoredFiles.copyMiniGitFormatToRegularFiles(STORED_FILE_DIR, newTrackedFiles, CURRENT_WORKING_DIRECTORY);
+        // If we switch to a valid branch, the head is only moved once the working directory has been updated
+        if (!state.getAllBranchNames().contains(name)) {
+            state.setBranchAsHead(name);
+            return;
+        }
+        Commit destinationCommit = getCommit(state.getBranchCommitID(name)); // get the commit
+        assert destinationCommit != null;
+        if (switchCommits(currentCommit, destinationCommit)) {
+            state.setBranchAsHead(name);
         }
     }
 
@@ -358,9 +566,26 @@ public class Repository {
 
     /**
      * removes a branch from MiniGit, if the given branch is the current branch, no branch is removed.
+     * A branch holding Commits that no other branch can reach is only removed if force is true,
+     * as those Commits would otherwise be lost from every log but global-log.
      * */
-    static void rmBranch(String name){
+    static void rmBranch(String name, boolean force){
         MiniGitState state = getMiniGitState();
+        String branchId = state.getAllBranchNames().contains(name) ? state.getBranchCommitID(name) : null;
+        if (!force && branchId != null && !name.equals(state.getBranch())) {
+            List<String> otherHeads = new ArrayList<>();
+            for (String other : state.getAllBranchNames()) {
+                if (!other.equals(name)) {
+                    otherHeads.add(state.getBranchCommitID(other));
+                }
+            }
+            int unmerged = getAncestryIndex().reachableOnlyFrom(branchId, otherHeads).size();
+            if (unmerged > 0) {
+                System.out.println("Branch " + name + " has " + unmerged + " commit(s) not on any other branch."
+                        + " Use rm-branch -f " + name + " to remove it anyway.");
+                return;
+            }
+        }
         state.removeBranch(name);
     }
 
@@ -373,13 +598,15 @@ public class Repository {
     /**
      * Reverts the MiniGit Repository to the state as remembered by the given commit.
      * Any Files tracked in the current commit, that have been modified or created since the specified commit will be deleted.
+     * Only files that differ between the two commits are written or deleted (see switchCommits()).
      * */
     static void reset(String commitID) {
         Commit destinationCommit = getCommit(commitID);
 
         if (destinationCommit != null) {
             MiniGitState state = getMiniGitState(); // Get State
-            Commit currentCommit = getCommit(state.getHead()); // Get Current Commit
+            String currentID = state.getHead();
+            Commit currentCommit = getCommit(currentID); // Get Current Commit
             assert currentCommit != null; // We know the commit exists
             Set<String> currentlyTrackedFiles = currentCommit.getTrackedFiles().keySet(); //Get the tracked Files in the current commit
             if (untrackedFiles(CURRENT_WORKING_DIRECTORY, currentlyTrackedFiles)){
@@ -387,12 +614,9 @@ public class Repository {
                 return;
             }
 
-            state.setNewHead(commitID); // Move Head to the new CommitID
-            Map<String, String> newTrackedFiles = destinationCommit.getTrackedFiles(); // Get the tracked Files in the new commit
-
-            // delete the file tracked by the old commit, copy in the files tracked by the new commit
-            deleteFilesIfNotDirectory(CURRENT_WORKING_DIRECTORY, currentlyTrackedFiles.toArray(new String[0]));
-            StoredFiles.copyMiniGitFormatToRegularFiles(STORED_FILE_DIR, newTrackedFiles, CURRENT_WORKING_DIRECTORY);
+            if (switchCommits(currentCommit, destinationCommit)) {
+                state.setNewHead(currentID, commitID); // Move Head to the new CommitID
+            }
         }
     }
 
@@ -418,36 +642,67 @@ public class Repository {
             return;
         }
 
-        Commit otherBranchCommit = getCommit(otherBranchId);
-
-        String splitPointID = CommitGraph.findFirstSplitPoint(
-                currentCommit,
-                currentId,
-                otherBranchCommit,
-                otherBranchId,
-                COMMITS_DIR);
+        if (otherBranchId.equals(currentId)) {
+            System.out.println("Branch is current, unable to merge.");
+            return;
+        }
 
-        if (splitPointID.equals(otherBranchId)){
+        AncestryIndex ancestry = getAncestryIndex();
+        if (ancestry.isAncestor(otherBranchId, currentId)){
             System.out.println("Specified branch is ancestor of current branch.");
             return;
         }
 
-        if (splitPointID.equals(currentId)){
-            checkoutBranch("branch");
+        if (ancestry.isAncestor(currentId, otherBranchId)){
+            reset(otherBranchId);
             System.out.println("Current branch is ancestor of given branch," +
                     " fast forward to given branch has been performed.");
             return;
         }
 
+        Commit otherBranchCommit = getCommit(otherBranchId);
+
+        Commit splitPoint = CommitGraph.findSplitPoint(ancestry, currentId, otherBranchId, COMMITS_DIR, OBJECTS_DIR);
+        if (splitPoint == null) {
+            return;
+        }
+
+        if (untrackedFiles(CURRENT_WORKING_DIRECTORY, currentCommit.getTrackedFiles().keySet())){
+            System.out.println("There is an untracked file in the directory. Merge command cannot continue.");
+            return;
+        }
+
         Commit newCommit = CommitGraph.merge(
                 currentCommit,
                 currentId,otherBranchCommit,
                 otherBranchId,
-                getCommit(splitPointID),
-                STORED_FILE_DIR);
+                splitPoint,
+                OBJECTS_DIR);
 
-        String newCommitID = writeCommit(newCommit);
-        reset(newCommitID);
+        if (switchCommits(currentCommit, newCommit)) {
+            writeCommit(newCommit);
+        }
+    }
+
+    /*
+     * gc Command.
+     * */
+
+
+    /**
+     * Consolidates all loose Commits and stored files, along with any existing packs, into a single pack.
+     * Older versions of a file are stored as deltas against newer versions of the same file.
+     * The commit graph file used to answer ancestry queries is rewritten to include every Commit,
+     * and every branch is moved into the packed-refs file.
+     * */
+    static void gc(){
+        MiniGitState state = getMiniGitState();
+        List<String> branchHeads = new ArrayList<>();
+        for (String branch : state.getAllBranchNames()) {
+            branchHeads.add(state.getBranchCommitID(branch));
+        }
+        System.out.println(PackWriter.repack(COMMITS_DIR, OBJECTS_DIR, PACKS_DIR, COMMIT_GRAPH, branchHeads));
+        Refs.pack(REFS_DIR);
     }
 
     /*
@@ -458,15 +713,15 @@ public class Repository {
 
     /**
      * Returns the state file of class MiniGitState() that represents MiniGits current state.
+     * The state is only read once per command, changes to it are saved when the command ends, see RepositorySession.
+     * Throws IllegalArgumentException if the state cannot be read.
      * */
     static MiniGitState getMiniGitState() {
         try {
-            return getAndReadObjectFile(STATE_DIR, MINI_GIT_STATE, MiniGitState.class);
+            return RepositorySession.getState(STATE_DIR, MINI_GIT_STATE);
         } catch (Exception e){
-            System.out.println("Unable to read current state");
-            System.exit(0);
+            throw new IllegalArgumentException("Unable to read current state");
         }
-        return null;
     }
 
     /**Returns the current head Commit*/
@@ -474,69 +729,88 @@ public class Repository {
         return getCommit(getMiniGitState().getHead());
     }
 
+    /**
+     * Returns the Commit ID the given branch name points to, or the given Commit ID if it is not a branch name.
+     * Returns null, after telling the user, if there is no such branch or Commit.
+     * */
+    static String resolveCommitID(String branchOrCommitID) {
+        MiniGitState state = getMiniGitState();
+        if (state.getAllBranchNames().contains(branchOrCommitID)) {
+            return state.getBranchCommitID(branchOrCommitID);
+        }
+        if (getAncestryIndex().positionOf(branchOrCommitID) < 0) {
+            System.out.println("No branch or commit named " + branchOrCommitID);
+            return null;
+        }
+        return branchOrCommitID;
+    }
+
     /**Returns the head commit as saved in the MiniGitState file, if no state file exists, or head is null, return null*/
     static Commit getCommit(String fileName) {
         return CommitGraph.getCommit(COMMITS_DIR, fileName);
     }
 
     /**
-     * Returns true if a file does not already exist in Repository.STORED_FILE_DIR AND it has not already been staged.
+     * Records files in the staging area, overwrites any previous entry of the same path.
+     * The content itself is held by the ObjectStore.
      * */
-    private static Boolean shouldStage(File file) {
-        // a file should be staged if it does not exist in the blobs dir OR the staging Area
-        if (!StoredFiles.savedInMiniGitFileFormat(STORED_FILE_DIR, file) && !StoredFiles.sameMiniGitFormatFileExists(STAGING_AREA_DIR, file));
-        return true;
+    public static void stageFiles(Map<String, String> pathToSha1Map){
+        if (!pathToSha1Map.isEmpty()) {
+            StoredFiles.stageFiles(STAGING_AREA_DIR, pathToSha1Map);
+        }
     }
 
     /**
-     * Writes a file to the staging area, overwrites and previous entry of the same name.
+     * Empties the Staging Area Directory as specified by Repository.STAGING_AREA_DIR,
+     * along with the files staged for removal.
      * */
-    public static void stageFile(File f){
-        StoredFiles.overwriteMiniGitFormatFile(f, STAGING_AREA_DIR);
+    private static void emptyStagingArea(){
+        StoredFiles.emptyStagingArea(STAGING_AREA_DIR);
+        getMiniGitState().clearStagedForRemoval();
     }
 
     /**
-     * Returns a File[] from the Repository.STAGING_AREA_DIR
-     * */
-    private static File[] getStagedFile(){
-        return STAGING_AREA_DIR.listFiles();
+     * Updates the working directory from the files of one commit to those of another.
+     * The commits' Trees are compared, and only files whose content differs between them are deleted or written,
+     * unchanged subdirectories are skipped entirely. Working copies of files both commits share are left as they are.
+     * Files are written in parallel, and the working directory is left unchanged if any of them cannot be written.
+     * Returns false, having printed the reason, if the working directory could not be updated.
+     * */
+    private static boolean switchCommits(Commit current, Commit destination) {
+        Tree.Diff diff = Tree.diff(OBJECTS_DIR, current.getTreeId(), destination.getTreeId());
+        try {
+            getWorkingTree().materialize(diff, MiniGitDir);
+            return true;
+        } catch (IllegalArgumentException e) {
+            System.out.println(e.getMessage());
+            return false;
+        }
     }
 
     /**
-     * Returns a String[] of files names from the Repository.STAGING_AREA_DIR
+     * Returns an AncestryIndex over every Commit, backed by the commit graph file written by the last gc.
      * */
-    static String[] getStagedFileNames(){
-        return STAGING_AREA_DIR.list();
+    static AncestryIndex getAncestryIndex() {
+        return new AncestryIndex(COMMITS_DIR, COMMIT_GRAPH);
     }
 
     /**
-     * Empties the Staging Area Directory as specified by Repository.STAGING_AREA_DIR
+     * Returns the WorkingTree of the current working directory.
      * */
-    private static void emptyStagingArea(){
-        File[] files = STAGING_AREA_DIR.listFiles();
-        if (files != null) {
-            for (File file : files) {
-                FileUtilities.deleteDirectory(file);
-            }
-        }
+    static WorkingTree getWorkingTree() {
+        return new WorkingTree(CURRENT_WORKING_DIRECTORY, OBJECTS_DIR, StatCache.load(STAT_CACHE), PROGRAM_DIRECTORY);
     }
 
     /**
-     * Returns true if a file is found in the given file location that is not present in the given tracked files.
-     * Directories and Hidden Files are excluded from the search.
+     * Returns true if a file is found in the given file location, or any of its subdirectories,
+     * that is not present in the given tracked files. Hidden Files are excluded from the search.
      * */
     private static boolean untrackedFiles(File location, Set<String> trackedFiles) {
-
-        try {
-            for (File f : location.listFiles()) {
-                if (!f.isDirectory() && !f.isHidden() && !trackedFiles.contains(f.getName())) {
-                    return true;
-                }
+        for (String path : getWorkingTree().listFiles(location)) {
+            if (!trackedFiles.contains(path)) {
+                return true;
             }
-        } catch (NullPointerException e) {
-            System.out.println("Unable to determine tracked files");
         }
-
         return false;
     }
 
@@ -0,0 +1,129 @@
+package MiniGit;
+
+import java.io.File;
+import java.util.Objects;
+
+import static MiniGit.FileUtilities.*;
+
+/**
+ * The RepositoryFormat class records which on-disk layout a .MiniGit directory uses,
+ * and upgrades repositories created by older versions of MiniGit to the current layout.
+ * Repositories created before the format was recorded are treated as version 0.
+ * */
+public class RepositoryFormat {
+
+    static final String FORMAT_FILE = "Format";
+
+    /*
+     * 1 -> Blobs are saved in the content addressed ObjectStore rather than Name(Directory) -> Sha1(File) format.
+     * 2 -> Blobs and Commits are saved deflated.
+     * 3 -> Blobs and Commits may be consolidated into packs.
+     * 4 -> Pack indexes begin with a fan out table and are memory mapped.
+     * 5 -> Commits are written by CommitCodec rather than Java serialization. Older Commits remain readable.
+     * 6 -> Commits reference a Tree rather than listing their tracked files. Older Commits remain readable.
+     * 7 -> The staging area lists staged paths in a single entries file rather than Name(Directory) -> Sha1(File) format.
+     * 8 -> Branches are stored by Refs rather than in the MiniGitState.
+     * 9 -> The MessageIndex records every Commit, those made before it existed included.
+     * 10 -> The Trees of Commits saved before version 6 are saved, so reading them never writes.
+     * */
+    static final int CURRENT_VERSION = 10;
+
+    /**
+     * Returns the format version recorded in the given .MiniGit directory, or 0 if none is recorded.
+     * */
+    static int readVersion(File miniGitDir) {
+        File f = getFile(miniGitDir, FORMAT_FILE);
+        if (f == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(readContentsAsString(f).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unreadable repository format: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Records the given format version in the given .MiniGit directory.
+     * */
+    static void writeVersion(File miniGitDir, int version) {
+        writeContents(newFile(miniGitDir.getPath(), FORMAT_FILE), Integer.toString(version));
+    }
+
+    /**
+     * Brings the repository up to the current format, one version at a time.
+     * Does nothing if the repository is already current.
+     * */
+    static void upgrade(File miniGitDir) {
+        int version = readVersion(miniGitDir);
+        if (version > CURRENT_VERSION) {
+            throw new IllegalArgumentException("Repository was created by a newer version of MiniGit.");
+        }
+        if (version == CURRENT_VERSION) {
+            return;
+        }
+
+        // Another process may have upgraded the repository while this one waited for the lock.
+        Repository.lockForWriting();
+        version = readVersion(miniGitDir);
+        if (version == CURRENT_VERSION) {
+            return;
+        }
+
+        if (version < 1) {
+            Repository.OBJECTS_DIR.mkdir();
+            ObjectStore.migrateLegacyLayout(Repository.LEGACY_BLOBS_DIR, Repository.OBJECTS_DIR);
+            StoredFiles.moveContentToObjectStore(Repository.STAGING_AREA_DIR, Repository.OBJECTS_DIR);
+        }
+
+        if (version < 2) {
+            // Objects moved into the store by the upgrade to version 1 above are already written compressed.
+            if (version == 1) {
+                ObjectStore.compressLegacyObjects(Repository.OBJECTS_DIR);
+            }
+            ObjectStore.compressLegacyObjects(Repository.COMMITS_DIR);
+        }
+
+        if (version < 3) {
+            Repository.PACKS_DIR.mkdir();
+        }
+
+        if (version < 4) {
+            File[] indexes = Repository.PACKS_DIR.listFiles((dir, name) -> name.endsWith(PackFile.INDEX_EXTENSION));
+            for (File index : Objects.requireNonNull(indexes)) {
+                PackIndex.upgradeLegacy(index);
+            }
+        }
+
+        if (version < 7) {
+            StoredFiles.convertMiniGitFormatFiles(Repository.STAGING_AREA_DIR);
+        }
+
+        if (version < 8) {
+            Repository.REFS_DIR.mkdir();
+            Repository.getMiniGitState().takeLegacyBranches()
+                    .forEach((name, commitID) -> Refs.update(Repository.REFS_DIR, name, commitID));
+            RepositorySession.end();
+        }
+
+        if (version < 9) {
+            Repository.MESSAGE_INDEX.delete();
+            MessageIndex.readAll(Repository.MESSAGE_INDEX, Repository.COMMITS_DIR, true);
+        }
+
+        if (version < 10) {
+            WriteBatch.begin();
+            for (String id : CommitGraph.getAllCommitIds(Repository.COMMITS_DIR)) {
+                Commit commit = CommitGraph.getCommit(Repository.COMMITS_DIR, id);
+                if (commit != null && commit.isSavedWithoutTree()) {
+                    Tree.write(Repository.OBJECTS_DIR, commit.getTrackedFiles());
+                }
+            }
+            WriteBatch.end();
+        }
+
+        if (version < CURRENT_VERSION) {
+            writeVersion(miniGitDir, CURRENT_VERSION);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package MiniGit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The RepositoryLock makes commands that change the repository run one at a time, across every process using it.
+ * A writing command holds an exclusive FileChannel lock on the lock file from start to finish, a second writer waits
+ * for it. Commands that only read, such as log, status and find, never take the lock and are never kept waiting,
+ * every file they read is replaced whole by renaming, so they see either the old or the new content.
+ * The lock is released by the operating system if the process holding it dies.
+ * */
+public class RepositoryLock {
+
+    private static FileChannel channel;
+    private static FileLock lock;
+
+    /**
+     * Takes the lock, waiting for any other process holding it to release it.
+     * Does nothing if this process already holds the lock.
+     * */
+    static void acquire(File lockFile) {
+        if (lock != null) {
+            return;
+        }
+        try {
+            open(lockFile);
+            lock = channel.tryLock();
+            if (lock == null) {
+                System.out.println("Waiting for another MiniGit process to finish...");
+                lock = channel.lock();
+            }
+        } catch (IOException e) {
+            release();
+            throw new IllegalArgumentException("Unable to lock repository: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Takes the lock only if no other process holds it. Returns true if this process now holds the lock.
+     * */
+    static boolean tryAcquire(File lockFile) {
+        if (lock != null) {
+            return true;
+        }
+        try {
+            open(lockFile);
+            lock = channel.tryLock();
+        } catch (IOException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            release();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Releases the lock, if this process holds it.
+     * */
+    static void release() {
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (channel != null) {
+                channel.close();
+            }
+        } catch (IOException ignored) {
+        } finally {
+            lock = null;
+            channel = null;
+        }
+    }
+
+    private static void open(File lockFile) throws IOException {
+        channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+}
@@ -0,0 +1,45 @@
+package MiniGit;
+
+import java.io.File;
+
+import static MiniGit.FileUtilities.*;
+
+/**
+ * The RepositorySession holds the MiniGitState for the length of a single command. However many times a command
+ * reads or changes the state, the state file is read at most once, when first needed, and written at most once,
+ * by end(), and only if the state was changed.
+ * */
+public class RepositorySession {
+
+    private static MiniGitState state;
+
+    /**
+     * Returns the MiniGitState saved in the given directory under the given name, reading it on first use.
+     * May throw IllegalArgumentException if the state cannot be read.
+     * */
+    static MiniGitState getState(File stateDir, String name) {
+        if (state == null) {
+            state = getAndReadObjectFile(stateDir, name, MiniGitState.class);
+        }
+        return state;
+    }
+
+    /**
+     * Saves any change made to the state during the session, and forgets the state,
+     * so the next session reads it again.
+     * */
+    static void end() {
+        if (state != null) {
+            state.saveIfChanged();
+            state = null;
+        }
+    }
+
+    /**
+     * Forgets the state without saving it, for a command that failed part way.
+     * Does nothing once end() has been called.
+     * */
+    static void discard() {
+        state = null;
+    }
+}
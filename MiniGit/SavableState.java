@@ -1,6 +1,5 @@
 package MiniGit;
 
-import java.io.File;
 import java.io.Serializable;
 import static MiniGit.FileUtilities.*;
 
@@ -11,8 +10,11 @@ import static MiniGit.FileUtilities.*;
  * */
 public class SavableState implements Serializable {
 
+    private static final long serialVersionUID = -3479219342716299315L;
+
     private String name;
     private String filePath;
+    private transient boolean changed = false;
 
     SavableState(String name, String filePath) {
         this.name = name;
@@ -21,13 +23,27 @@ public class SavableState implements Serializable {
 
     /**
      * Saves self to the file path, and name given on initialization.
+     * The file is replaced whole, so a crash leaves either the previous state or this one.
      * */
     public void save() {
-        File stateFile = newFile(filePath, name);
-        if (stateFile.exists()){
-            stateFile.delete();
+        writeObject(newFile(filePath, name), this);
+        changed = false;
+    }
+
+    /**
+     * Records that this state has changed, to be saved by the next call to saveIfChanged().
+     * */
+    void changed() {
+        changed = true;
+    }
+
+    /**
+     * Saves self, as save() does, if changed() has been called since it was last saved.
+     * */
+    public void saveIfChanged() {
+        if (changed) {
+            save();
         }
-        writeObject(stateFile, this);
     }
 
 }
@@ -0,0 +1,201 @@
+package MiniGit;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static MiniGit.FileUtilities.*;
+
+/**
+ * The StatCache remembers the Sha1 of every working file along with the file's size, modification time,
+ * change time and inode at the time it was hashed. A file whose stat data is unchanged is not read again.
+ *
+ * A file modified in the same clock tick as the cache was written can keep identical stat data,
+ * so an entry whose modification time is not older than the cache file itself is never trusted and is hashed again.
+ *
+ * The cache is laid out as: Signature "MGSC", Version, Entry Count,
+ * then each entry as Path, Size, Modification Time, Change Time, Inode, 20 byte Sha1.
+ * It only ever saves work, a missing or unreadable cache is treated as empty.
+ * Files may be hashed by several threads at once.
+ * */
+public class StatCache {
+
+    static final String SIGNATURE = "MGSC";
+    static final int VERSION = 1;
+
+    /**
+     * The stat data of a file, times are in nanoseconds.
+     * */
+    static class Stat {
+        final long size;
+        final long modified;
+        final long changed;
+        final long inode;
+
+        Stat(long size, long modified, long changed, long inode) {
+            this.size = size;
+            this.modified = modified;
+            this.changed = changed;
+            this.inode = inode;
+        }
+
+        boolean sameAs(Stat other) {
+            return size == other.size && modified == other.modified && changed == other.changed && inode == other.inode;
+        }
+    }
+
+    private static class Entry {
+        final Stat stat;
+        final String sha1;
+
+        Entry(Stat stat, String sha1) {
+            this.stat = stat;
+            this.sha1 = sha1;
+        }
+    }
+
+    private final File cacheFile;
+    private final long writtenAt;
+    private final Map<String, Entry> entries;
+    private volatile boolean changed = false;
+
+    private StatCache(File cacheFile, long writtenAt, Map<String, Entry> entries) {
+        this.cacheFile = cacheFile;
+        this.writtenAt = writtenAt;
+        this.entries = entries;
+    }
+
+    /**
+     * Reads the cache saved in the given file.
+     * */
+    static StatCache load(File cacheFile) {
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        if (!cacheFile.exists()) {
+            return new StatCache(cacheFile, Long.MIN_VALUE, entries);
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile.toPath())))) {
+            long writtenAt = nanos(Files.getLastModifiedTime(cacheFile.toPath()));
+            byte[] signature = new byte[SIGNATURE.length()];
+            in.readFully(signature);
+            if (!SIGNATURE.equals(new String(signature)) || in.readInt() != VERSION) {
+                return new StatCache(cacheFile, Long.MIN_VALUE, entries);
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                Stat stat = new Stat(in.readLong(), in.readLong(), in.readLong(), in.readLong());
+                entries.put(path, new Entry(stat, PackFile.readSha1(in)));
+            }
+            return new StatCache(cacheFile, writtenAt, entries);
+        } catch (IOException e) {
+            return new StatCache(cacheFile, Long.MIN_VALUE, new ConcurrentHashMap<>());
+        }
+    }
+
+    /**
+     * Returns the Sha1 of the content of the given file, which is found at the given path.
+     * The file is only read if its stat data differs from when it was last hashed.
+     * */
+    String sha1(String path, File f) {
+        return sha1(path, f, FileUtilities::getSha1HashFromFile);
+    }
+
+    /**
+     * Returns the Sha1 of the content of the given file, which is found at the given path.
+     * The hasher, which returns the Sha1 of a file's content, is only called if the file's stat data differs from
+     * when it was last hashed.
+     * */
+    String sha1(String path, File f, Function<File, String> hasher) {
+        Stat stat = stat(f);
+        Entry cached = entries.get(path);
+        if (cached != null && cached.stat.sameAs(stat) && cached.stat.modified < writtenAt) {
+            return cached.sha1;
+        }
+        String sha1 = hasher.apply(f);
+        entries.put(path, new Entry(stat, sha1));
+        changed = true;
+        return sha1;
+    }
+
+    /**
+     * Forgets every entry whose path is not in the given set.
+     * */
+    void retainOnly(Set<String> paths) {
+        changed |= entries.keySet().retainAll(paths);
+    }
+
+    /**
+     * Saves the cache if anything has changed since it was read.
+     * The cache is written to a temporary file then renamed, so a reader never sees a partly written cache.
+     * Each save uses its own temporary file, as commands that only read, and so save without the RepositoryLock,
+     * may save at the same time.
+     * */
+    void save() {
+        if (!changed) {
+            return;
+        }
+        File temporary;
+        try {
+            temporary = Files.createTempFile(cacheFile.getAbsoluteFile().getParentFile().toPath(), cacheFile.getName(), ".tmp").toFile();
+        } catch (IOException e) {
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary.toPath())))) {
+            out.writeBytes(SIGNATURE);
+            out.writeInt(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                Stat stat = entry.getValue().stat;
+                out.writeUTF(entry.getKey());
+                out.writeLong(stat.size);
+                out.writeLong(stat.modified);
+                out.writeLong(stat.changed);
+                out.writeLong(stat.inode);
+                PackFile.writeSha1(out, entry.getValue().sha1);
+            }
+        } catch (IOException e) {
+            temporary.delete();
+            return;
+        }
+        try {
+            Files.move(temporary.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            changed = false;
+        } catch (IOException e) {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Returns the stat data of the given file. Where the file system does not provide a change time or inode,
+     * the creation time and file key are used in their place.
+     * */
+    static Stat stat(File f) {
+        try {
+            Map<String, Object> unix = Files.readAttributes(f.toPath(), "unix:size,lastModifiedTime,ctime,ino");
+            return new Stat((Long) unix.get("size"), nanos((FileTime) unix.get("lastModifiedTime")),
+                    nanos((FileTime) unix.get("ctime")), (Long) unix.get("ino"));
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            try {
+                BasicFileAttributes basic = Files.readAttributes(f.toPath(), BasicFileAttributes.class);
+                Object key = basic.fileKey();
+                return new Stat(basic.size(), nanos(basic.lastModifiedTime()), nanos(basic.creationTime()),
+                        key == null ? 0 : key.hashCode());
+            } catch (IOException ioException) {
+                throw new IllegalArgumentException(ioException.getMessage());
+            }
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e.getMessage());
+        }
+    }
+
+    private static long nanos(FileTime time) {
+        return time.to(TimeUnit.NANOSECONDS);
+    }
+}
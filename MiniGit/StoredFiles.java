@@ -4,161 +4,102 @@ import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
+import java.util.TreeMap;
 
 import static MiniGit.FileUtilities.*;
-import static java.nio.file.Files.copy;
 
 public class StoredFiles {
 
     /*
     *
-    * A MiniGit Format File is a file saved in Name(Parent Directory) -> Sha1(Child File) Format
+    * The staging area records the Path -> Sha1 of every staged file in a single entries file, one "Sha1 Path" per line.
+    * Paths of files in subdirectories are given with '/' between each directory name.
+    * The content each Sha1 refers to is held by the ObjectStore.
+    *
+    * A MiniGit Format File is a file saved in Name(Parent Directory) -> Sha1(Child File) Format,
+    * the staging area was laid out this way before the entries file was introduced.
     *
     * */
 
+    static final String ENTRIES_FILE = "Entries";
+
     StoredFiles(File blobsDirectory) {
         blobsDirectory = blobsDirectory;
     }
 
     /**
-     * Determines if a given file exists, saved in MiniGits Name(Directory) -> Sha1(File) Format,
-     * This method only confirms a Sha1 File exists, and does not check its validity
+     * Stages every file in the given map<Path, Sha1>, replacing any entry previously staged with the same path.
      * */
-    static boolean existsInMiniGitFormat(File parentDirectory, String name) {
-        File f = getFile(parentDirectory, name);
-        if (f.isDirectory()) {
-            File[] content = f.listFiles();
-            for (File file : content) {
-                if (file.isFile() && file.getName().length() == 40) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-    /**
-     * Determines if a duplicate file exists, saved in MiniGits Name(Directory) -> Sha1(File) Format,
-     * This method differs to existsInMiniGitFormat() in that it compates both the 'name' directory and it's contents,
-     * the name and content must match to return true.
-     * */
-    static boolean sameMiniGitFormatFileExists(File directoryToSearch, File nameSha1FormatFile) {
-
-        if (nameSha1FormatFile.exists() && nameSha1FormatFile.isDirectory()) {
-            File targetFile = new File(directoryToSearch, nameSha1FormatFile.getName());
-
-            if (targetFile.exists() && targetFile.isDirectory()) {
-                // Set of Each
-                Set<String> blobContent = Set.of(nameSha1FormatFile.list());
-                Set<String> targetFileContent = Set.of(targetFile.list());
-
-                // If the sets are the same, the blobs are equal
-                if (targetFileContent.equals(blobContent)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+    static void stageFiles(File stagingArea, Map<String, String> pathToSha1Map){
+        Map<String, String> staged = getStoredFilesAsMap(stagingArea);
+        staged.putAll(pathToSha1Map);
+        writeEntries(stagingArea, staged);
     }
 
     /**
-     * Searches the specified directory for a directory of the same name as 'regularFile',
-     *  containing a file named after the sha1 of calculated from 'regularFile
-     *  '*/
-    static boolean savedInMiniGitFileFormat(File directoryToSearch, File regularFile) {
-
-        File storedFileOfSameName = new File(directoryToSearch, regularFile.getName());
-
-        if (storedFileOfSameName.exists() && storedFileOfSameName.isDirectory()){
-            String contentSha1 = getSha1HashFromFile(regularFile);
-            if (new File(storedFileOfSameName, contentSha1).exists()){
-                    return true;
-            }
-        }
-        return false;
-    }
-
-
-    /**
-     * Writes a file to MiniGit Format,
-     * Returns the newly calculated Sha1 Hash.
+     * Removes the entry with the given path from the staging area, if there is one.
      * */
-    static String writeFileToMiniGitFileFormat(File fileToWrite, File parentDirectory){
-
-        String name = fileToWrite.getName();
-        byte[] content = FileUtilities.readContents(fileToWrite);
-        String sha1 = FileUtilities.getSha1Hash(content);
-
-        File nameDirectory = new File(parentDirectory, name);
-        nameDirectory.mkdir();
-
-        File sha1File = new File(nameDirectory, sha1);
-        writeByteArray(sha1File, content);
-        return sha1;
+    static void unstageFile(File stagingArea, String path){
+        Map<String, String> staged = getStoredFilesAsMap(stagingArea);
+        if (staged.remove(path) != null) {
+            writeEntries(stagingArea, staged);
+        }
     }
 
     /**
-     * Writes a file to MiniGit Format, deleting the old 'name' directory and its content, before writing the new File.
-     * Returns the newly calculated Sha1 Hash.
+     * Removes every entry from the staging area.
      * */
-    static String overwriteMiniGitFormatFile(File fileToWrite, File newLocation){
-
-        String name = fileToWrite.getName();
-        byte[] content = FileUtilities.readContents(fileToWrite);
-        String sha1 = FileUtilities.getSha1Hash(content);
-
-        File newDirectory = new File(newLocation, name);
-        FileUtilities.deleteDirectory(newDirectory); // <-- <-- <-- deletes previous dir and content,
-                                                                    // without having to know the exact sha1
-        newDirectory.mkdir();
-
-        File sha1File = new File(newDirectory, sha1);
-        writeByteArray(sha1File, content);
-        return sha1;
-
+    static void emptyStagingArea(File stagingArea){
+        deleteIfExists(stagingArea, ENTRIES_FILE);
     }
 
     /**
-     * Writes a given string to a file saved in MiniGit Format. Returns the newly calculated Sha1 Hash.
+     * Returns a map<String, String> of staged file paths and their respective Sha1 value.
      * */
-    static String writeStringToMiniGitFormatFile(String name, String content, File enclosingDirectory){
-
-
-        File nameAsDirectory = new File(enclosingDirectory, name);
-
-        if (!nameAsDirectory.exists()) {
-            nameAsDirectory.mkdir();
+    static Map<String, String> getStoredFilesAsMap(File stagingArea){
+        Map<String, String> staged = new HashMap<>();
+        File entries = getFile(stagingArea, ENTRIES_FILE);
+        if (entries != null) {
+            for (String line : readContentsAsString(entries).split("\n")) {
+                int separator = line.indexOf(' ');
+                if (separator > 0) {
+                    staged.put(line.substring(separator + 1), line.substring(0, separator));
+                }
+            }
         }
-
-        return saveObject(content, nameAsDirectory);
+        return staged;
     }
 
-    /**
-     * Copies files stored in MiniGit Format to the new specified location
-     * */
-    static void copyStoredFiles(File[] blobs, File newParentDirectory){
-        for (File blob : blobs) {
-            FileUtilities.copyDirectory(blob, newParentDirectory);
-        }
+    private static void writeEntries(File stagingArea, Map<String, String> staged) {
+        StringBuilder entries = new StringBuilder();
+        new TreeMap<>(staged).forEach((path, sha1) -> entries.append(sha1).append(' ').append(path).append('\n'));
+        writeContents(new File(stagingArea, ENTRIES_FILE), entries.toString());
     }
 
-
     /**
-     * Copies a file stored in MiniGit Format to a new specified location.
+     * Moves the content of MiniGit Format Files written before the ObjectStore was introduced into the ObjectStore,
+     * leaving the Sha1 Files behind as empty markers.
      * */
-    static void copyStoredFile(File blob, File newParentDirectory){
-        FileUtilities.copyDirectory(blob, newParentDirectory);
+    static void moveContentToObjectStore(File location, File objectsDir){
+        for (Map.Entry<String, String> entry : getMiniGitFormatFilesAsMap(location).entrySet()) {
+            File sha1File = newFiles(location, entry.getKey(), entry.getValue());
+            if (sha1File.length() > 0) {
+                ObjectStore.writeBlob(objectsDir, sha1File);
+                writeByteArray(sha1File, new byte[0]);
+            }
+        }
     }
 
-
     /**
-     * Takes a blob and writes it as a regular file, the new files name is the former blob directory name,
-     * the sha1 of this file is discarded.
+     * Replaces a staging area laid out as MiniGit Format Files with the entries file.
      * */
-    public static void copyMiniGitFormatToRegularFiles(File originalLocation, Map<String, String> filenameToSha1Map, File newLocation){
-        for (String fileName : filenameToSha1Map.keySet()) {
-            File f = newFiles(originalLocation, fileName, filenameToSha1Map.get(fileName));
-            FileUtilities.copy(f, new File(newLocation, fileName));
+    static void convertMiniGitFormatFiles(File stagingArea){
+        Map<String, String> staged = getMiniGitFormatFilesAsMap(stagingArea);
+        for (String name : staged.keySet()) {
+            deleteIfExists(stagingArea, name);
+        }
+        if (!staged.isEmpty()) {
+            writeEntries(stagingArea, staged);
         }
     }
 
@@ -167,8 +108,8 @@ public class StoredFiles {
      * This Method only returns one Sha1 String per name,
      * and therefore only suitable for uses where each name directory contains one Sha1 File.
      * */
-    static Map<String, String> getStoredFilesAsMap(File location){
-        File[] files = location.listFiles();
+    private static Map<String, String> getMiniGitFormatFilesAsMap(File location){
+        File[] files = location.listFiles(File::isDirectory);
         if (files == null || files.length == 0) {
             return new HashMap<>();
         } else {
@@ -0,0 +1,266 @@
+package MiniGit;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * A Tree lists the content of one directory: the Sha1 of every file in it, and the Sha1 of the Tree of every
+ * subdirectory. Trees are saved in the ObjectStore in the same way as file content, so a directory whose content
+ * has not changed keeps the same Tree, shared by every Commit that tracks it.
+ *
+ * A Tree is laid out as: Signature "MGT", Version, Entry Count, then each entry as Type, Name, 20 byte Sha1,
+ * sorted by name. Paths of files in subdirectories are given with '/' between each directory name.
+ * */
+public class Tree {
+
+    static final String SIGNATURE = "MGT";
+    static final byte VERSION = 1;
+    static final String SEPARATOR = "/";
+
+    /*
+     * The ID of a Tree with no entries.
+     * */
+    static final String EMPTY_TREE_ID = FileUtilities.getSha1Hash(encode(new TreeMap<>()));
+
+    /**
+     * A single file or subdirectory held by a Tree.
+     * */
+    static class Entry {
+        final byte type;
+        final String id;
+
+        Entry(byte type, String id) {
+            this.type = type;
+            this.id = id;
+        }
+
+        boolean isTree() {
+            return type == PackFile.TYPE_TREE;
+        }
+    }
+
+    /**
+     * Writes the Trees describing the given map<Path, Sha1> of files and returns the ID of the top level Tree.
+     * */
+    static String write(File objectsDir, Map<String, String> files) {
+        return update(objectsDir, null, files, Set.of());
+    }
+
+    /**
+     * Returns the ID of the top level Tree describing the given map<Path, Sha1> of files, without saving any Tree.
+     * */
+    static String id(Map<String, String> files) {
+        return build(null, null, files, Set.of(), false);
+    }
+
+    /**
+     * Writes a new version of the given Tree with the given map<Path, Sha1> of files added or replaced,
+     * and the given paths removed. Only the Trees of directories that contain a change are read and rewritten,
+     * every other subdirectory keeps its existing Tree. Directories left empty are removed.
+     * Returns the ID of the new top level Tree.
+     * */
+    static String update(File objectsDir, String treeId, Map<String, String> changes, Set<String> removals) {
+        return build(objectsDir, treeId, changes, removals, true);
+    }
+
+    /**
+     * Works out the Trees of update(), saving them only if save is true. Returns the ID of the new top level Tree.
+     * */
+    private static String build(File objectsDir, String treeId, Map<String, String> changes, Set<String> removals,
+                                boolean save) {
+        SortedMap<String, Entry> entries = treeId == null ? new TreeMap<>() : readEntries(objectsDir, treeId);
+        Map<String, Map<String, String>> subdirectoryChanges = new HashMap<>();
+        Map<String, Set<String>> subdirectoryRemovals = new HashMap<>();
+
+        for (Map.Entry<String, String> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                continue;
+            }
+            int separator = change.getKey().indexOf(SEPARATOR);
+            if (separator < 0) {
+                entries.put(change.getKey(), new Entry(PackFile.TYPE_BLOB, change.getValue()));
+            } else {
+                subdirectoryChanges.computeIfAbsent(change.getKey().substring(0, separator), k -> new HashMap<>())
+                        .put(change.getKey().substring(separator + 1), change.getValue());
+            }
+        }
+        for (String removal : removals) {
+            int separator = removal.indexOf(SEPARATOR);
+            if (separator < 0) {
+                entries.remove(removal);
+            } else {
+                subdirectoryRemovals.computeIfAbsent(removal.substring(0, separator), k -> new HashSet<>())
+                        .add(removal.substring(separator + 1));
+            }
+        }
+
+        Set<String> subdirectories = new HashSet<>(subdirectoryChanges.keySet());
+        subdirectories.addAll(subdirectoryRemovals.keySet());
+        for (String name : subdirectories) {
+            Entry existing = entries.get(name);
+            String subtree = build(objectsDir,
+                    existing != null && existing.isTree() ? existing.id : null,
+                    subdirectoryChanges.getOrDefault(name, Map.of()),
+                    subdirectoryRemovals.getOrDefault(name, Set.of()), save);
+            if (subtree.equals(EMPTY_TREE_ID)) {
+                entries.remove(name);
+            } else {
+                entries.put(name, new Entry(PackFile.TYPE_TREE, subtree));
+            }
+        }
+
+        return save ? ObjectStore.writeBlob(objectsDir, encode(entries)) : FileUtilities.getSha1Hash(encode(entries));
+    }
+
+    /**
+     * Returns a map<Path, Sha1> of every file in the given Tree and its subdirectories.
+     * */
+    static Map<String, String> readAll(File objectsDir, String treeId) {
+        Map<String, String> files = new HashMap<>();
+        readAll(objectsDir, treeId, "", files);
+        return files;
+    }
+
+    private static void readAll(File objectsDir, String treeId, String prefix, Map<String, String> files) {
+        for (Map.Entry<String, Entry> entry : readEntries(objectsDir, treeId).entrySet()) {
+            if (entry.getValue().isTree()) {
+                readAll(objectsDir, entry.getValue().id, prefix + entry.getKey() + SEPARATOR, files);
+            } else {
+                files.put(prefix + entry.getKey(), entry.getValue().id);
+            }
+        }
+    }
+
+    /**
+     * The files that differ between two Trees.
+     * */
+    static class Diff {
+        /* map<Path, Sha1> of files added or whose content changed, with their content in the new Tree */
+        final Map<String, String> changed = new HashMap<>();
+        /* Paths of files the old Tree holds but the new Tree does not */
+        final Set<String> removed = new HashSet<>();
+    }
+
+    /**
+     * Returns the files that differ between the given old and new Trees.
+     * A subdirectory whose Tree has the same ID on both sides is skipped without being read.
+     * */
+    static Diff diff(File objectsDir, String oldTreeId, String newTreeId) {
+        Diff diff = new Diff();
+        diff(objectsDir, oldTreeId, newTreeId, "", diff);
+        return diff;
+    }
+
+    private static void diff(File objectsDir, String oldTreeId, String newTreeId, String prefix, Diff diff) {
+        if (Objects.equals(oldTreeId, newTreeId)) {
+            return;
+        }
+        SortedMap<String, Entry> oldEntries = oldTreeId == null ? new TreeMap<>() : readEntries(objectsDir, oldTreeId);
+        SortedMap<String, Entry> newEntries = newTreeId == null ? new TreeMap<>() : readEntries(objectsDir, newTreeId);
+        Set<String> names = new HashSet<>(oldEntries.keySet());
+        names.addAll(newEntries.keySet());
+
+        for (String name : names) {
+            Entry oldEntry = oldEntries.get(name);
+            Entry newEntry = newEntries.get(name);
+            String path = prefix + name;
+            if (oldEntry != null && newEntry != null && oldEntry.type == newEntry.type && oldEntry.id.equals(newEntry.id)) {
+                continue;
+            }
+            if (oldEntry != null && !oldEntry.isTree() && (newEntry == null || newEntry.isTree())) {
+                diff.removed.add(path);
+            }
+            if (newEntry != null && !newEntry.isTree()) {
+                diff.changed.put(path, newEntry.id);
+            }
+            if ((oldEntry != null && oldEntry.isTree()) || (newEntry != null && newEntry.isTree())) {
+                diff(objectsDir,
+                        oldEntry != null && oldEntry.isTree() ? oldEntry.id : null,
+                        newEntry != null && newEntry.isTree() ? newEntry.id : null,
+                        path + SEPARATOR, diff);
+            }
+        }
+    }
+
+    /**
+     * Returns the Sha1 of the file at the given path in the given Tree, or null.
+     * Only the Trees of the directories on the path are read.
+     * */
+    static String lookUp(File objectsDir, String treeId, String path) {
+        String[] names = path.split(SEPARATOR);
+        for (int i = 0; i < names.length && treeId != null; i++) {
+            Entry entry = readEntries(objectsDir, treeId).get(names[i]);
+            if (entry == null || entry.isTree() != (i < names.length - 1)) {
+                return null;
+            }
+            treeId = entry.id;
+        }
+        return treeId;
+    }
+
+    /**
+     * Returns the sorted map<Name, Entry> held by the given Tree.
+     * The empty Tree is known without being saved, as the initial commit refers to it.
+     * */
+    static SortedMap<String, Entry> readEntries(File objectsDir, String treeId) {
+        if (treeId.equals(EMPTY_TREE_ID)) {
+            return new TreeMap<>();
+        }
+        return decode(ObjectStore.readBlob(objectsDir, treeId));
+    }
+
+    /**
+     * Returns the bytes a Tree holding the given entries is saved as.
+     * */
+    static byte[] encode(SortedMap<String, Entry> entries) {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeBytes(SIGNATURE);
+            out.writeByte(VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+                out.writeByte(entry.getValue().type);
+                CommitCodec.writeString(out, entry.getKey());
+                PackFile.writeSha1(out, entry.getValue().id);
+            }
+            out.close();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new Error("IO");
+        }
+    }
+
+    /**
+     * Returns the entries held by the given Tree bytes.
+     * Throws IllegalArgumentException if the bytes are not a Tree.
+     * */
+    static SortedMap<String, Entry> decode(byte[] bytes) {
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes);
+            for (int i = 0; i < SIGNATURE.length(); i++) {
+                if (in.get() != SIGNATURE.charAt(i)) {
+                    throw new IllegalArgumentException("Not a MiniGit Tree");
+                }
+            }
+            if (in.get() != VERSION) {
+                throw new IllegalArgumentException("Tree was written by a newer version of MiniGit");
+            }
+            SortedMap<String, Entry> entries = new TreeMap<>();
+            int count = in.getInt();
+            for (int i = 0; i < count; i++) {
+                byte type = in.get();
+                String name = CommitCodec.readString(in);
+                entries.put(name, new Entry(type, CommitCodec.readSha1(in)));
+            }
+            return entries;
+        } catch (BufferUnderflowException e) {
+            throw new IllegalArgumentException("Tree is truncated");
+        }
+    }
+}
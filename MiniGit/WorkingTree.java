@@ -0,0 +1,336 @@
+package MiniGit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.Function;
+
+import static MiniGit.FileUtilities.*;
+
+/**
+ * The WorkingTree class reads the files in the working directory and its subdirectories,
+ * and compares them with the Trees of a Commit.
+ *
+ * Files are identified by their path relative to the working directory, with '/' between each directory name.
+ * Hidden files and directories (including .MiniGit) are never tracked, nor is the directory MiniGit is run from.
+ *
+ * A comparison first works out the Tree every working directory would be saved as, without saving it.
+ * A directory whose Tree has the same ID as the Commit's Tree for that directory holds no changes,
+ * so neither it nor anything below it is looked at again.
+ * Files are only read when the StatCache shows they may have changed since they were last hashed.
+ * */
+public class WorkingTree {
+
+    private final File root;
+    private final File objectsDir;
+    private final StatCache statCache;
+    private final Set<File> excluded;
+
+    /* The entries every working directory would be saved as, by directory path ("" for the root, else "dir/") */
+    private final Map<String, SortedMap<String, Tree.Entry>> directories = new HashMap<>();
+    /* The Sha1 of every working file, by path */
+    private final Map<String, String> files = new HashMap<>();
+
+    private final SortedMap<String, String> modified = new TreeMap<>();
+    private final SortedSet<String> untracked = new TreeSet<>();
+    private final SortedSet<String> deleted = new TreeSet<>();
+
+    WorkingTree(File root, File objectsDir, StatCache statCache, File... excluded) {
+        this.root = root;
+        this.objectsDir = objectsDir;
+        this.statCache = statCache;
+        this.excluded = new HashSet<>(Arrays.asList(excluded));
+    }
+
+    /**
+     * Compares the working directory with the given Tree.
+     * Afterwards the files that differ are available from getModifiedFiles(), getUntrackedFiles() and getDeletedFiles().
+     * */
+    WorkingTree compareWith(String treeId) {
+        String workingId = hash(root, "");
+        statCache.retainOnly(files.keySet());
+        compare("", workingId, treeId);
+        return this;
+    }
+
+    /**
+     * Returns a map<Path, Sha1> of files present in both, whose content differs from the compared Tree.
+     * */
+    SortedMap<String, String> getModifiedFiles() {
+        return modified;
+    }
+
+    /**
+     * Returns the paths of files present in the working directory but not in the compared Tree.
+     * */
+    SortedSet<String> getUntrackedFiles() {
+        return untracked;
+    }
+
+    /**
+     * Returns the paths of files present in the compared Tree but not in the working directory.
+     * */
+    SortedSet<String> getDeletedFiles() {
+        return deleted;
+    }
+
+    /**
+     * Returns the Sha1 of the working file at the given path, or null if there is no such file.
+     * Only files read by compareWith() are known.
+     * */
+    String getSha1(String path) {
+        return files.get(path);
+    }
+
+    /**
+     * Returns the Sha1 of the content of the working file at the given path.
+     * */
+    String sha1(String path) {
+        return statCache.sha1(path, new File(root, path));
+    }
+
+    /**
+     * Returns the Sha1 of the content of the working file at the given path,
+     * calling the given hasher to work it out if the file may have changed since it was last hashed.
+     * */
+    String sha1(String path, Function<File, String> hasher) {
+        return statCache.sha1(path, new File(root, path), hasher);
+    }
+
+    /**
+     * Saves the Sha1 of every file hashed, so unchanged files need not be read next time.
+     * */
+    void saveStatCache() {
+        statCache.save();
+    }
+
+    /**
+     * Returns the paths of every file in the given directory and its subdirectories, relative to the working directory.
+     * */
+    List<String> listFiles(File directory) {
+        List<String> paths = new ArrayList<>();
+        if (directory.isFile()) {
+            paths.add(pathOf(directory));
+            return paths;
+        }
+        for (File f : children(directory)) {
+            if (f.isDirectory()) {
+                paths.addAll(listFiles(f));
+            } else {
+                paths.add(pathOf(f));
+            }
+        }
+        return paths;
+    }
+
+    /**
+     * Returns the path of the given file relative to the working directory.
+     * */
+    String pathOf(File f) {
+        return root.toPath().relativize(f.getAbsoluteFile().toPath()).toString().replace(File.separator, Tree.SEPARATOR);
+    }
+
+    /**
+     * Updates the working directory by the given Diff: removed files are deleted and changed files are written.
+     * Changed files are first written in parallel to a temporary directory created in the given parent directory,
+     * which must be on the same file system as the working directory. Only once every file has been written are
+     * the files about to be removed or replaced moved aside, and the new files renamed into place. If a file cannot
+     * be written, or renamed into place, the files moved aside are moved back, so the working directory is left as it
+     * was. Failures to write are reported in path order.
+     * Throws IllegalArgumentException in case of problems.
+     * */
+    void materialize(Tree.Diff diff, File temporaryParent) {
+        File temporaryDir;
+        try {
+            temporaryDir = Files.createTempDirectory(temporaryParent.toPath(), "checkout").toFile();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to update working directory: " + e.getMessage());
+        }
+        try {
+            Map<String, File> temporaryFiles = new TreeMap<>();
+            for (String path : new TreeSet<>(diff.changed.keySet())) {
+                temporaryFiles.put(path, new File(temporaryDir, Integer.toString(temporaryFiles.size())));
+            }
+            SortedMap<String, String> failures = new ConcurrentSkipListMap<>();
+            Parallel.forEach(temporaryFiles.keySet(), path -> {
+                try {
+                    ObjectStore.copyToRegularFile(objectsDir, diff.changed.get(path), temporaryFiles.get(path));
+                } catch (IllegalArgumentException e) {
+                    failures.put(path, String.valueOf(e.getMessage()));
+                }
+            });
+            if (!failures.isEmpty()) {
+                StringBuilder message = new StringBuilder("Unable to update working directory, no files were changed:");
+                failures.forEach((path, reason) -> message.append("\n").append(path).append(": ").append(reason));
+                throw new IllegalArgumentException(message.toString());
+            }
+
+            switchFiles(diff.removed, temporaryFiles, new File(temporaryDir, "previous"));
+        } finally {
+            // Kept if it still holds files that could not be restored.
+            String[] notRestored = new File(temporaryDir, "previous").list();
+            if (notRestored == null || notRestored.length == 0) {
+                deleteDirectory(temporaryDir);
+            }
+        }
+    }
+
+    /**
+     * Moves the files at the removed paths and the paths about to be replaced into the given backup directory,
+     * then renames each new file into place. If any rename fails, the new files already in place are deleted and
+     * the files moved aside are moved back before throwing IllegalArgumentException.
+     * */
+    private void switchFiles(Collection<String> removed, Map<String, File> newFiles, File backupDir) {
+        Map<String, File> previous = new LinkedHashMap<>();
+        List<String> placed = new ArrayList<>();
+        try {
+            SortedSet<String> replaced = new TreeSet<>(removed);
+            replaced.addAll(newFiles.keySet());
+            for (String path : replaced) {
+                File target = new File(root, path);
+                if (target.isFile()) {
+                    File backup = new File(backupDir, Integer.toString(previous.size()));
+                    backup.getParentFile().mkdirs();
+                    Files.move(target.toPath(), backup.toPath());
+                    previous.put(path, backup);
+                }
+            }
+            for (String path : removed) {
+                deleteEmptyParents(new File(root, path));
+            }
+            for (Map.Entry<String, File> entry : newFiles.entrySet()) {
+                File target = new File(root, entry.getKey());
+                target.getParentFile().mkdirs();
+                Files.move(entry.getValue().toPath(), target.toPath());
+                placed.add(entry.getKey());
+            }
+            deleteDirectory(backupDir);
+        } catch (IOException e) {
+            deleteFiles(placed);
+            List<String> notRestored = new ArrayList<>();
+            for (Map.Entry<String, File> entry : previous.entrySet()) {
+                File target = new File(root, entry.getKey());
+                target.getParentFile().mkdirs();
+                try {
+                    Files.move(entry.getValue().toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException restoreFailure) {
+                    notRestored.add(entry.getKey());
+                }
+            }
+            if (notRestored.isEmpty()) {
+                throw new IllegalArgumentException("Unable to update working directory, no files were changed: "
+                        + e.getMessage());
+            }
+            throw new IllegalArgumentException("Unable to update working directory: " + e.getMessage()
+                    + "\nUnable to restore " + String.join(", ", notRestored) + ", kept in " + backupDir.getPath());
+        }
+    }
+
+    /**
+     * Deletes the files at the given paths, along with any directory left empty.
+     * */
+    void deleteFiles(Collection<String> paths) {
+        for (String path : paths) {
+            File f = new File(root, path);
+            if (f.exists() && !f.isDirectory()) {
+                f.delete();
+                deleteEmptyParents(f);
+            }
+        }
+    }
+
+    /**
+     * Deletes every empty directory from the given file's parent up to, but not including, the working directory.
+     * */
+    void deleteEmptyParents(File f) {
+        File parent = f.getAbsoluteFile().getParentFile();
+        while (parent != null && !parent.equals(root.getAbsoluteFile())) {
+            String[] remaining = parent.list();
+            if (remaining == null || remaining.length > 0) {
+                return;
+            }
+            parent.delete();
+            parent = parent.getParentFile();
+        }
+    }
+
+    /**
+     * Returns the ID of the Tree the given directory would be saved as, or null if it holds no files.
+     * The entries of each directory and the Sha1 of each file are remembered for the comparison.
+     * */
+    private String hash(File directory, String path) {
+        SortedMap<String, Tree.Entry> entries = new TreeMap<>();
+        for (File f : children(directory)) {
+            if (f.isDirectory()) {
+                String subtree = hash(f, path + f.getName() + Tree.SEPARATOR);
+                if (subtree != null) {
+                    entries.put(f.getName(), new Tree.Entry(PackFile.TYPE_TREE, subtree));
+                }
+            } else {
+                String sha1 = statCache.sha1(path + f.getName(), f);
+                files.put(path + f.getName(), sha1);
+                entries.put(f.getName(), new Tree.Entry(PackFile.TYPE_BLOB, sha1));
+            }
+        }
+        if (entries.isEmpty()) {
+            return null;
+        }
+        directories.put(path, entries);
+        return getSha1Hash(Tree.encode(entries));
+    }
+
+    /**
+     * Compares the working directory at the given path, whose Tree would have the working ID, with the given Tree.
+     * Either ID may be null where the directory is missing on that side.
+     * */
+    private void compare(String path, String workingId, String treeId) {
+        if (Objects.equals(workingId, treeId) || (workingId == null && Tree.EMPTY_TREE_ID.equals(treeId))) {
+            return;
+        }
+        SortedMap<String, Tree.Entry> working = workingId == null ? new TreeMap<>() : directories.get(path);
+        SortedMap<String, Tree.Entry> committed = treeId == null ? new TreeMap<>() : Tree.readEntries(objectsDir, treeId);
+
+        Set<String> names = new TreeSet<>(working.keySet());
+        names.addAll(committed.keySet());
+        for (String name : names) {
+            Tree.Entry w = working.get(name);
+            Tree.Entry c = committed.get(name);
+            String entryPath = path + name;
+
+            if (w != null && !w.isTree()) {
+                if (c == null || c.isTree()) {
+                    untracked.add(entryPath);
+                } else if (!w.id.equals(c.id)) {
+                    modified.put(entryPath, w.id);
+                }
+            }
+            if (c != null && !c.isTree() && (w == null || w.isTree())) {
+                deleted.add(entryPath);
+            }
+            if ((w != null && w.isTree()) || (c != null && c.isTree())) {
+                compare(entryPath + Tree.SEPARATOR,
+                        w != null && w.isTree() ? w.id : null,
+                        c != null && c.isTree() ? c.id : null);
+            }
+        }
+    }
+
+    /**
+     * Returns the files and subdirectories of the given directory that may be tracked.
+     * */
+    private List<File> children(File directory) {
+        List<File> children = new ArrayList<>();
+        File[] listed = directory.listFiles();
+        if (listed != null) {
+            for (File f : listed) {
+                if (!f.isHidden() && !f.getName().startsWith(".") && !excluded.contains(f.getAbsoluteFile())) {
+                    children.add(f);
+                }
+            }
+        }
+        return children;
+    }
+}
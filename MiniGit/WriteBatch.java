@@ -0,0 +1,164 @@
+package MiniGit;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The WriteBatch makes saved files survive a crash without paying for a disk flush per file. A file is never
+ * written in place: it is written to a temporary file beside it, flushed to disk, then renamed over its name, and
+ * the directory it was renamed into is flushed, so a crash leaves either the old file or the complete new one.
+ *
+ * While a batch is open, as it is for every writing command, objects and Commits are written to their temporary
+ * files but not yet flushed or renamed. The whole batch is flushed at once, renamed, and each directory it was
+ * renamed into flushed a single time, just before anything that could refer to it is saved, such as a branch,
+ * the state or the staging area. So nothing saved ever refers to an object a crash could lose, and an object's
+ * name only appears once its content is on disk. Until then, a batched file is read from its temporary file.
+ * */
+public class WriteBatch {
+
+    private static volatile boolean open = false;
+    /* Path saved to -> temporary file holding its content, for every file in the open batch */
+    private static final Map<Path, File> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Opens a batch, see above.
+     * */
+    static void begin() {
+        open = true;
+    }
+
+    /**
+     * Flushes the batch, then closes it, so files are saved one at a time again.
+     * */
+    static void end() {
+        try {
+            flush();
+        } finally {
+            open = false;
+        }
+    }
+
+    /**
+     * Deletes every file waiting in the batch, without saving any, then closes it, for a command that failed part way.
+     * Does nothing once end() has been called.
+     * */
+    static synchronized void discard() {
+        for (File temporary : pending.values()) {
+            temporary.delete();
+        }
+        pending.clear();
+        open = false;
+    }
+
+    /**
+     * Saves the given temporary file, already written, under the given name. If a batch is open this is done when
+     * the batch is flushed, otherwise straight away.
+     * Files saved in a batch are named after their content, so if the name is already waiting in the batch, the
+     * given file is a duplicate and is deleted. The file already waiting is kept, as another thread may be reading it.
+     * Throws IllegalArgumentException in case of problems.
+     * */
+    static void save(File temporary, File target) {
+        if (!open) {
+            saveNow(temporary, target);
+            return;
+        }
+        if (pending.putIfAbsent(key(target), temporary) != null) {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Saves the given temporary file, already written, under the given name straight away, flushing it and its
+     * directory to disk. Any open batch is flushed first, as the file may refer to the files in it.
+     * Throws IllegalArgumentException in case of problems, once the temporary file has been deleted.
+     * */
+    static void saveNow(File temporary, File target) {
+        try {
+            flush();
+            sync(temporary);
+        } catch (IllegalArgumentException e) {
+            temporary.delete();
+            throw e;
+        }
+        rename(temporary, target);
+        syncDirectory(target.getAbsoluteFile().getParentFile());
+    }
+
+    /**
+     * Returns the file the content saved under the given name can be read from, which is its temporary file
+     * while it is waiting in the batch.
+     * */
+    static File resolve(File target) {
+        if (pending.isEmpty()) {
+            return target;
+        }
+        File temporary = pending.get(key(target));
+        return temporary == null ? target : temporary;
+    }
+
+    /**
+     * Flushes every file waiting in the batch to disk, renames each over its name, then flushes each directory
+     * they were renamed into, along with its parent, as the directory may have been created for the batch.
+     * Throws IllegalArgumentException in case of problems.
+     * */
+    static synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<Path, File> batch = new HashMap<>(pending);
+        Parallel.forEach(batch.values(), WriteBatch::sync);
+
+        Set<File> directories = new HashSet<>();
+        for (Map.Entry<Path, File> entry : batch.entrySet()) {
+            File target = entry.getKey().toFile();
+            target.getParentFile().mkdirs();
+            rename(entry.getValue(), target);
+            pending.remove(entry.getKey(), entry.getValue());
+            directories.add(target.getParentFile());
+            directories.add(target.getParentFile().getParentFile());
+        }
+        directories.forEach(WriteBatch::syncDirectory);
+    }
+
+    private static Path key(File target) {
+        return target.getAbsoluteFile().toPath().normalize();
+    }
+
+    private static void sync(File file) {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+            channel.force(true);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to save " + file.getName() + ": " + e.getMessage());
+        }
+    }
+
+    private static void rename(File temporary, File target) {
+        try {
+            Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            temporary.delete();
+            throw new IllegalArgumentException("Unable to save " + target.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Flushes the entries of the given directory to disk. Not every platform can open a directory to flush it,
+     * where it cannot the renames are left to the operating system.
+     * */
+    private static void syncDirectory(File directory) {
+        if (directory == null) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException ignored) {
+        }
+    }
+}